@@ -10,6 +10,30 @@ static jmethodID jdeviceRemoved;
 static jmethodID jbuttonDown;
 static jmethodID jbuttonUp;
 static jmethodID jaxisMove;
+static jmethodID jflushEvents;
+
+// Events are appended here when Java has registered a batch buffer.
+// This layout must match the decoder in NativeGamepad.java.
+#define EVENT_DEVICE_ATTACHED 0
+#define EVENT_DEVICE_REMOVED 1
+#define EVENT_BUTTON_DOWN 2
+#define EVENT_BUTTON_UP 3
+#define EVENT_AXIS_MOVED 4
+
+struct BatchedEvent {
+	jint type;
+	jint deviceId;
+	jint id;
+	jint extra;
+	jfloat value;
+	jfloat lastValue;
+	jdouble timestamp;
+};
+
+static jobject eventBufferRef;
+static struct BatchedEvent *eventBuffer;
+static int eventBufferCapacity;
+static int eventCount;
 
 static JNIEnv *getThreadEnv(void) {
 	JNIEnv *env;
@@ -25,24 +49,76 @@ static void invokeJavaCallback(jmethodID method, ...) {
 	va_end(args);
 }
 
+// Hands the events collected so far to Java
+static void flushEvents(void) {
+	if (eventCount > 0) {
+		int count = eventCount;
+		eventCount = 0;
+		invokeJavaCallback(jflushEvents, count);
+	}
+}
+
+static void queueEvent(int type, int deviceId, int id, int extra, float value, float lastValue, double timestamp) {
+	struct BatchedEvent *event;
+	
+	// Only upcall when the buffer fills up during a single poll
+	if (eventCount == eventBufferCapacity) {
+		flushEvents();
+	}
+	
+	event = &eventBuffer[eventCount++];
+	event->type = type;
+	event->deviceId = deviceId;
+	event->id = id;
+	event->extra = extra;
+	event->value = value;
+	event->lastValue = lastValue;
+	event->timestamp = timestamp;
+}
+
 static void deviceAttachCallback(struct Gamepad_device * device, void * context) {
-	invokeJavaCallback(jdeviceAttached, device->deviceID, device->numButtons, device->numAxes);
+	if (eventBuffer != NULL) {
+		queueEvent(EVENT_DEVICE_ATTACHED, device->deviceID, device->numButtons, device->numAxes, 0, 0, 0);
+	}
+	else {
+		invokeJavaCallback(jdeviceAttached, device->deviceID, device->numButtons, device->numAxes);
+	}
 }
 
 static void deviceRemoveCallback(struct Gamepad_device * device, void * context) {
-	invokeJavaCallback(jdeviceRemoved, device->deviceID);
+	if (eventBuffer != NULL) {
+		queueEvent(EVENT_DEVICE_REMOVED, device->deviceID, 0, 0, 0, 0, 0);
+	}
+	else {
+		invokeJavaCallback(jdeviceRemoved, device->deviceID);
+	}
 }
 
 static void buttonDownCallback(struct Gamepad_device * device, unsigned int buttonID, double timestamp, void * context) {
-	invokeJavaCallback(jbuttonDown, device->deviceID, buttonID);
+	if (eventBuffer != NULL) {
+		queueEvent(EVENT_BUTTON_DOWN, device->deviceID, buttonID, 0, 0, 0, timestamp);
+	}
+	else {
+		invokeJavaCallback(jbuttonDown, device->deviceID, buttonID);
+	}
 }
 
 static void buttonUpCallback(struct Gamepad_device * device, unsigned int buttonID, double timestamp, void * context) {
-	invokeJavaCallback(jbuttonUp, device->deviceID, buttonID);
+	if (eventBuffer != NULL) {
+		queueEvent(EVENT_BUTTON_UP, device->deviceID, buttonID, 0, 0, 0, timestamp);
+	}
+	else {
+		invokeJavaCallback(jbuttonUp, device->deviceID, buttonID);
+	}
 }
 
 static void axisMoveCallback(struct Gamepad_device * device, unsigned int axisID, float value, float lastValue, double timestamp, void * context) {
-	invokeJavaCallback(jaxisMove, device->deviceID, axisID, value, lastValue);
+	if (eventBuffer != NULL) {
+		queueEvent(EVENT_AXIS_MOVED, device->deviceID, axisID, 0, value, lastValue, timestamp);
+	}
+	else {
+		invokeJavaCallback(jaxisMove, device->deviceID, axisID, value, lastValue);
+	}
 }
 
 // This function must be called first
@@ -55,6 +131,9 @@ Java_com_limelight_input_gamepad_NativeGamepad_init(JNIEnv *env, jobject this) {
 	Gamepad_axisMoveFunc(axisMoveCallback, NULL);
 		
 	Gamepad_init();
+	
+	// Deliver devices found during init
+	flushEvents();
 }
 
 // This function must be called last
@@ -64,6 +143,12 @@ Java_com_limelight_input_gamepad_NativeGamepad_shutdown(JNIEnv *env, jobject thi
 	
 	// Remove the class reference
 	(*env)->DeleteGlobalRef(env, nativeGamepadClass);
+	
+	if (eventBufferRef != NULL) {
+		(*env)->DeleteGlobalRef(env, eventBufferRef);
+		eventBufferRef = NULL;
+		eventBuffer = NULL;
+	}
 }
 
 // This returns the number of connected devices
@@ -76,6 +161,7 @@ Java_com_limelight_input_gamepad_NativeGamepad_numDevices(JNIEnv *env, jobject t
 JNIEXPORT void JNICALL
 Java_com_limelight_input_gamepad_NativeGamepad_detectDevices(JNIEnv *env, jobject this) {
 	Gamepad_detectDevices();
+	flushEvents();
 }
 
 // This polls for events and calls the appropriate callbacks
@@ -84,6 +170,59 @@ Java_com_limelight_input_gamepad_NativeGamepad_processEvents(JNIEnv *env, jobjec
 	Gamepad_processEvents();
 }
 
+// This registers a direct buffer that events are batched into instead of
+// making an upcall for each event
+JNIEXPORT jint JNICALL
+Java_com_limelight_input_gamepad_NativeGamepad_registerEventBuffer(JNIEnv *env, jobject this, jobject buffer) {
+	if (eventBufferRef != NULL) {
+		(*env)->DeleteGlobalRef(env, eventBufferRef);
+	}
+	
+	eventBufferRef = (*env)->NewGlobalRef(env, buffer);
+	eventBuffer = (struct BatchedEvent *) (*env)->GetDirectBufferAddress(env, buffer);
+	eventBufferCapacity = (int) ((*env)->GetDirectBufferCapacity(env, buffer) / sizeof(struct BatchedEvent));
+	eventCount = 0;
+	
+	return sizeof(struct BatchedEvent);
+}
+
+// This polls for events and returns the number of events left in the batch buffer
+JNIEXPORT jint JNICALL
+Java_com_limelight_input_gamepad_NativeGamepad_processEventsBatched(JNIEnv *env, jobject this) {
+	int count;
+	
+	Gamepad_processEvents();
+	
+	count = eventCount;
+	eventCount = 0;
+	return count;
+}
+
+// This delivers synthetic axis events through either the batch buffer or
+// per-event upcalls so the cost of the two paths can be compared
+JNIEXPORT jint JNICALL
+Java_com_limelight_input_gamepad_NativeGamepad_deliverSyntheticEvents(JNIEnv *env, jobject this, jint events, jboolean batched) {
+	int i;
+	int count;
+	
+	if (batched && eventBuffer == NULL) {
+		return -1;
+	}
+	
+	for (i = 0; i < events; i++) {
+		if (batched) {
+			queueEvent(EVENT_AXIS_MOVED, -1, 0, 0, 0.5f, 0.4f, 0);
+		}
+		else {
+			invokeJavaCallback(jaxisMove, -1, 0, 0.5f, 0.4f);
+		}
+	}
+	
+	count = eventCount;
+	eventCount = 0;
+	return count;
+}
+
 // This is called when the library is first loaded
 JNIEXPORT jint JNICALL
 JNI_OnLoad(JavaVM *pjvm, void *reserved) {
@@ -103,6 +242,7 @@ JNI_OnLoad(JavaVM *pjvm, void *reserved) {
 	jbuttonDown = (*env)->GetStaticMethodID(env, nativeGamepadClass, "buttonDownCallback", "(II)V");
 	jbuttonUp = (*env)->GetStaticMethodID(env, nativeGamepadClass, "buttonUpCallback", "(II)V");
 	jaxisMove = (*env)->GetStaticMethodID(env, nativeGamepadClass, "axisMovedCallback", "(IIFF)V");
+	jflushEvents = (*env)->GetStaticMethodID(env, nativeGamepadClass, "flushEventsCallback", "(I)V");
 	
 	return JNI_VERSION_1_6;
 }
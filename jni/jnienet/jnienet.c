@@ -16,6 +16,93 @@
 #define PEER_TO_LONG(x) ((intptr_t)(x))
 #define LONG_TO_PEER(x) ((ENetPeer*)(intptr_t)(x))
 
+// Flush modes for setFlushWindow()
+#define FLUSH_EVERY_PACKET 0
+#define FLUSH_EXPLICIT -1
+
+#define MAX_BATCHED_CLIENTS 4
+
+// Packets written to a batched client are left queued so ENet can pack
+// several of them into one datagram when the client is flushed
+typedef struct _BATCH_STATE {
+    ENetHost* client;
+    int windowMs;
+    enet_uint32 firstQueuedTime;
+    int queuedPackets;
+} BATCH_STATE, *PBATCH_STATE;
+
+static BATCH_STATE batchStates[MAX_BATCHED_CLIENTS];
+
+static PBATCH_STATE getBatchState(ENetHost* client) {
+    int i;
+    
+    for (i = 0; i < MAX_BATCHED_CLIENTS; i++) {
+        if (batchStates[i].client == client) {
+            return &batchStates[i];
+        }
+    }
+    
+    return NULL;
+}
+
+static void flushQueuedPackets(ENetHost* client) {
+    PBATCH_STATE state = getBatchState(client);
+    
+    enet_host_flush(client);
+    if (state != NULL) {
+        state->queuedPackets = 0;
+    }
+}
+
+// Sends the client's batch if its window has run out. Returns the ms left until
+// the queued batch is due, or -1 if nothing is waiting on a window.
+static int flushIfDue(ENetHost* client) {
+    PBATCH_STATE state = getBatchState(client);
+    enet_uint32 waited;
+    
+    if (state == NULL || state->windowMs <= 0 || state->queuedPackets == 0) {
+        return -1;
+    }
+    
+    waited = ENET_TIME_DIFFERENCE(enet_time_get(), state->firstQueuedTime);
+    if (waited >= (enet_uint32) state->windowMs) {
+        flushQueuedPackets(client);
+        return -1;
+    }
+    
+    return state->windowMs - (int) waited;
+}
+
+// Called before servicing the socket. enet_host_service() can return an event it
+// already had without sending anything, so queued packets are sent here instead.
+static void flushBeforeService(ENetHost* client) {
+    PBATCH_STATE state = getBatchState(client);
+    
+    if (state != NULL && state->queuedPackets != 0) {
+        flushQueuedPackets(client);
+    }
+}
+
+// Called after each packet is queued to send it now or leave it for a later flush
+static void flushOrBatch(ENetHost* client) {
+    PBATCH_STATE state = getBatchState(client);
+    enet_uint32 now;
+    
+    if (state == NULL || state->windowMs == FLUSH_EVERY_PACKET) {
+        enet_host_flush(client);
+        return;
+    }
+    
+    now = enet_time_get();
+    if (state->queuedPackets++ == 0) {
+        state->firstQueuedTime = now;
+    }
+    
+    if (state->windowMs > 0 && ENET_TIME_DIFFERENCE(now, state->firstQueuedTime) >= (enet_uint32) state->windowMs) {
+        flushQueuedPackets(client);
+    }
+}
+
 JNIEXPORT jint JNICALL
 Java_com_limelight_nvstream_enet_EnetConnection_initializeEnet(JNIEnv *env, jobject class) {
     return enet_initialize();
@@ -83,7 +170,8 @@ Java_com_limelight_nvstream_enet_EnetConnection_readPacket(JNIEnv *env, jobject
     jbyte* dataPtr;
     ENetEvent event;
     
-    // Wait for a receive event, timeout, or disconnect
+    // Send anything still batched, then wait for a receive event, timeout, or disconnect
+    flushBeforeService(LONG_TO_CLIENT(client));
     err = enet_host_service(LONG_TO_CLIENT(client), &event, timeout);
     if (err <= 0) {
         return err;
@@ -128,8 +216,8 @@ Java_com_limelight_nvstream_enet_EnetConnection_writePacket(JNIEnv *env, jobject
             ret = JNI_FALSE;
         }
         else {
-            // Force the client to send the packet now
-            enet_host_flush(LONG_TO_CLIENT(client));
+            // Send the packet now unless it's being batched
+            flushOrBatch(LONG_TO_CLIENT(client));
             ret = JNI_TRUE;
         }
     }
@@ -142,8 +230,171 @@ Java_com_limelight_nvstream_enet_EnetConnection_writePacket(JNIEnv *env, jobject
     return ret;
 }
 
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_enet_EnetConnection_readPacketDirect(JNIEnv *env, jobject class, jlong client, jobject buffer, jint length, jint timeout) {
+    jint err;
+    void* dataPtr;
+    ENetEvent event;
+    
+    dataPtr = (*env)->GetDirectBufferAddress(env, buffer);
+    if (dataPtr == NULL || (*env)->GetDirectBufferCapacity(env, buffer) < length) {
+        return -1;
+    }
+    
+    // Send anything still batched, then wait for a receive event, timeout, or disconnect
+    flushBeforeService(LONG_TO_CLIENT(client));
+    err = enet_host_service(LONG_TO_CLIENT(client), &event, timeout);
+    if (err <= 0) {
+        return err;
+    }
+    else if (event.type != ENET_EVENT_TYPE_RECEIVE) {
+        return -1;
+    }
+    
+    // Check that the packet isn't too large
+    if (event.packet->dataLength > (size_t) length) {
+        err = (jint) event.packet->dataLength;
+        enet_packet_destroy(event.packet);
+        return err;
+    }
+    
+    // Copy the packet data straight into the caller's buffer
+    memcpy(dataPtr, event.packet->data, event.packet->dataLength);
+    err = (jint) event.packet->dataLength;
+    
+    // Free the packet
+    enet_packet_destroy(event.packet);
+    
+    return err;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_limelight_nvstream_enet_EnetConnection_writePacketDirect(JNIEnv *env, jobject class, jlong client, jlong peer, jobject buffer, jint offset, jint length, jint packetFlags) {
+    ENetPacket* packet;
+    enet_uint8* dataPtr;
+    enet_uint8* dataCopy;
+    jboolean sent;
+    
+    dataPtr = (*env)->GetDirectBufferAddress(env, buffer);
+    if (dataPtr == NULL || (*env)->GetDirectBufferCapacity(env, buffer) < (jlong) offset + length) {
+        return JNI_FALSE;
+    }
+    dataPtr += offset;
+    
+    // Reliable packets are kept until they are acknowledged, so they must own their data.
+    // Unreliable packets are normally sent and released by the flush below, so they can
+    // reference the caller's buffer without a copy.
+    if (!(packetFlags & ENET_PACKET_FLAG_RELIABLE)) {
+        packetFlags |= ENET_PACKET_FLAG_NO_ALLOCATE;
+    }
+    
+    packet = enet_packet_create(dataPtr, length, packetFlags);
+    if (packet == NULL) {
+        return JNI_FALSE;
+    }
+    
+    // Hold our own reference so we can tell whether ENet is done with the packet after the flush
+    packet->referenceCount++;
+    
+    if (enet_peer_send(LONG_TO_PEER(peer), 0, packet) < 0) {
+        // This can fail if the peer has been disconnected
+        enet_packet_destroy(packet);
+        return JNI_FALSE;
+    }
+    
+    // Send the packet now unless it's being batched
+    flushOrBatch(LONG_TO_CLIENT(client));
+    
+    if (--packet->referenceCount == 0) {
+        // Sent and released by ENet, so the caller's buffer is free again
+        enet_packet_destroy(packet);
+    }
+    else if (packet->flags & ENET_PACKET_FLAG_NO_ALLOCATE) {
+        // Still queued (batched or sent as reliable fragments). It can't keep pointing
+        // at the caller's buffer, so give it its own copy.
+        dataCopy = (enet_uint8*) enet_malloc(packet->dataLength);
+        if (dataCopy == NULL) {
+            // It can't be left pointing at the caller's buffer, so send it now. If ENet
+            // still holds it after that, reset the peer to drop everything queued for it.
+            packet->referenceCount++;
+            flushQueuedPackets(LONG_TO_CLIENT(client));
+            sent = packet->referenceCount == 1 ? JNI_TRUE : JNI_FALSE;
+            if (!sent) {
+                enet_peer_reset(LONG_TO_PEER(peer));
+            }
+            
+            // Only our reference is left either way
+            enet_packet_destroy(packet);
+            return sent;
+        }
+        memcpy(dataCopy, packet->data, packet->dataLength);
+        packet->data = dataCopy;
+        packet->flags &= ~ENET_PACKET_FLAG_NO_ALLOCATE;
+    }
+    
+    return JNI_TRUE;
+}
+
+// windowMs is FLUSH_EVERY_PACKET (the default), FLUSH_EXPLICIT to only send queued
+// packets on flushPackets() or the next read, or the longest time in ms that a
+// packet may wait for others to be written before the batch is sent. A windowed
+// batch goes out on the first write, read, or flushIfDue() call after its window
+// ends, so a caller that may go quiet mid-batch must call flushIfDue() on a timer.
+JNIEXPORT jboolean JNICALL
+Java_com_limelight_nvstream_enet_EnetConnection_setFlushWindow(JNIEnv *env, jobject class, jlong client, jint windowMs) {
+    PBATCH_STATE state = getBatchState(LONG_TO_CLIENT(client));
+    
+    if (state == NULL) {
+        if (windowMs == FLUSH_EVERY_PACKET) {
+            return JNI_TRUE;
+        }
+        
+        // Claim a free slot
+        state = getBatchState(NULL);
+        if (state == NULL) {
+            return JNI_FALSE;
+        }
+        state->client = LONG_TO_CLIENT(client);
+        state->queuedPackets = 0;
+    }
+    
+    // Don't strand anything queued under the old mode
+    flushQueuedPackets(LONG_TO_CLIENT(client));
+    
+    if (windowMs == FLUSH_EVERY_PACKET) {
+        state->client = NULL;
+    }
+    else {
+        state->windowMs = windowMs;
+    }
+    
+    return JNI_TRUE;
+}
+
+JNIEXPORT void JNICALL
+Java_com_limelight_nvstream_enet_EnetConnection_flushPackets(JNIEnv *env, jobject class, jlong client) {
+    flushQueuedPackets(LONG_TO_CLIENT(client));
+}
+
+// Returns the ms until flushIfDue() should be called again, or -1 if nothing is batched
+JNIEXPORT jint JNICALL
+Java_com_limelight_nvstream_enet_EnetConnection_flushIfDue(JNIEnv *env, jobject class, jlong client) {
+    return flushIfDue(LONG_TO_CLIENT(client));
+}
+
+// Each datagram is one sendmsg() call, so this also counts send syscalls
+JNIEXPORT jlong JNICALL
+Java_com_limelight_nvstream_enet_EnetConnection_getSentDatagrams(JNIEnv *env, jobject class, jlong client) {
+    return (jlong) LONG_TO_CLIENT(client)->totalSentPackets;
+}
+
 JNIEXPORT void JNICALL
 Java_com_limelight_nvstream_enet_EnetConnection_destroyClient(JNIEnv *env, jobject class, jlong client) {
+    PBATCH_STATE state = getBatchState(LONG_TO_CLIENT(client));
+    
+    if (state != NULL) {
+        state->client = NULL;
+    }
     enet_host_destroy(LONG_TO_CLIENT(client));
 }
 
@@ -4,6 +4,10 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
@@ -12,14 +16,24 @@ import javax.swing.UnsupportedLookAndFeelException;
 
 import com.limelight.binding.LibraryHelper;
 import com.limelight.binding.PlatformBinding;
+import com.limelight.binding.SessionPrewarmer;
+import com.limelight.binding.audio.InstrumentedAudioRenderer;
+import com.limelight.binding.audio.JavaxAudioRenderer;
+import com.limelight.binding.http.NvHttpProvider;
+import com.limelight.binding.video.AbstractCpuDecoder;
+import com.limelight.discovery.SubnetScanner;
 import com.limelight.gui.MainFrame;
 import com.limelight.gui.StreamFrame;
+import com.limelight.input.InputDispatcher;
+import com.limelight.input.InputRecorder;
+import com.limelight.input.InputReplayer;
 import com.limelight.input.gamepad.GamepadHandler;
 import com.limelight.input.gamepad.GamepadListener;
 import com.limelight.input.gamepad.NativeGamepad;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.StreamConfiguration;
+import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
@@ -28,6 +42,8 @@ import com.limelight.settings.PreferencesManager;
 import com.limelight.settings.SettingsManager;
 import com.limelight.settings.PreferencesManager.Preferences;
 import com.limelight.settings.PreferencesManager.Preferences.Resolution;
+import com.limelight.stats.AvSyncMonitor;
+import com.limelight.stats.StartupProfiler;
 
 /**
  * Main class for Limelight-pc contains methods for starting the application as well
@@ -42,10 +58,21 @@ public class Limelight implements NvConnectionListener {
 	private String host;
 	private StreamFrame streamFrame;
 	private NvConnection conn;
+	private InputDispatcher inputDispatcher;
 	private boolean connectionTerminating;
 	private static JFrame limeFrame;
 	private GamepadHandler gamepad;
 	private VideoDecoderRenderer decoderRenderer;
+	private AudioRenderer audioRenderer;
+	private AvSyncMonitor syncMonitor;
+	private int avSyncBoundMs;
+	private long stageStartTime;
+	private File inputRecordingFile;
+	private InputRecorder inputRecorder;
+	private File inputReplayFile;
+	private double inputReplaySpeed;
+	private SessionPrewarmer prewarmer;
+	private long launchTime;
 	
 	public static void displayUiMessage(JFrame frame, String message, String title, int type) {
 		if (COMMAND_LINE_LAUNCH) {
@@ -73,18 +100,89 @@ public class Limelight implements NvConnectionListener {
 	 * Creates a connection to the host and starts up the stream.
 	 */
 	public void startUp(StreamConfiguration streamConfig, Preferences prefs) {
+		launchTime = System.nanoTime();
 		streamFrame = new StreamFrame();
 
-		decoderRenderer = PlatformBinding.getVideoDecoderRenderer();
+		if (prewarmer != null) {
+			decoderRenderer = prewarmer.takeVideoDecoderRenderer();
+			LimeLog.info("Waited "+(System.nanoTime() - launchTime) / 1000000+" ms for the session prewarm");
+		}
+		if (decoderRenderer == null) {
+			decoderRenderer = PlatformBinding.getVideoDecoderRenderer();
+		}
+		if (audioRenderer == null) {
+			audioRenderer = PlatformBinding.getAudioRenderer();
+		}
+		
+		// A/V sync can only be measured when both renderers report presentation times
+		if (decoderRenderer instanceof AbstractCpuDecoder && audioRenderer instanceof JavaxAudioRenderer) {
+			syncMonitor = new AvSyncMonitor();
+			syncMonitor.setCorrectionBound(avSyncBoundMs);
+			((AbstractCpuDecoder) decoderRenderer).setSyncMonitor(syncMonitor);
+			((JavaxAudioRenderer) audioRenderer).setSyncMonitor(syncMonitor);
+		}
 		
 		conn = new NvConnection(host, prefs.getUniqueId(), this, streamConfig, PlatformBinding.getCryptoProvider());
-		streamFrame.build(this, conn, streamConfig, prefs);
+		inputDispatcher = new InputDispatcher(conn);
+		streamFrame.build(this, inputDispatcher, streamConfig, prefs);
+		if (inputRecordingFile != null) {
+			try {
+				inputRecorder = new InputRecorder(inputRecordingFile);
+				streamFrame.setInputRecorder(inputRecorder);
+			} catch (IOException e) {
+				LimeLog.warning("Unable to record input to "+inputRecordingFile+": "+e.getMessage());
+			}
+		}
 		conn.start(PlatformBinding.getDeviceName(), streamFrame,
 				VideoDecoderRenderer.FLAG_PREFER_QUALITY,
-				PlatformBinding.getAudioRenderer(),
+				audioRenderer,
 				decoderRenderer);
 	}
 
+	/**
+	 * Overrides the audio renderer used for the stream. Must be called before <code>startUp()</code>.
+	 * @param audioRenderer the audio renderer to use instead of the platform default
+	 */
+	public void setAudioRenderer(AudioRenderer audioRenderer) {
+		this.audioRenderer = audioRenderer;
+	}
+
+	/**
+	 * Keeps audio within the given offset of video by dropping or padding audio.
+	 * Must be called before <code>startUp()</code>.
+	 * @param boundMs the maximum tolerated A/V offset in milliseconds or 0 to only measure it
+	 */
+	public void setAvSyncCorrection(int boundMs) {
+		this.avSyncBoundMs = boundMs;
+	}
+
+	/**
+	 * Uses the resources prepared by a prewarmer for the stream. Must be called before <code>startUp()</code>.
+	 * @param prewarmer the prewarmer that was started for this host
+	 */
+	public void setPrewarmer(SessionPrewarmer prewarmer) {
+		this.prewarmer = prewarmer;
+	}
+
+	/**
+	 * Records all input the input handlers receive during the stream. Must be called before <code>startUp()</code>.
+	 * @param file the file to record to
+	 */
+	public void setInputRecording(File file) {
+		this.inputRecordingFile = file;
+	}
+
+	/**
+	 * Replays recorded input into the stream once it has started.
+	 * Must be called before <code>startUp()</code>.
+	 * @param file the recording to replay
+	 * @param speed how much faster than recorded to replay, or 0 to replay as fast as possible
+	 */
+	public void setInputReplay(File file, double speed) {
+		this.inputReplayFile = file;
+		this.inputReplaySpeed = speed;
+	}
+
 	/*
 	 * Creates a StreamConfiguration given a Resolution. 
 	 * Used to specify what kind of stream will be used.
@@ -102,9 +200,9 @@ public class Limelight implements NvConnectionListener {
 	/*
 	 * Creates the main frame for the application.
 	 */
-	private static void createFrame() {
+	private static void createFrame(boolean hadPreferences) {
 		// Tell the user how to map the gamepad if it's a new install and there's no default for this platform
-		if (!PreferencesManager.hasExistingPreferences() &&
+		if (!hadPreferences &&
 				!System.getProperty("os.name").contains("Windows")) {
 			displayUiMessage(null, "Gamepad mapping is not set. If you want to use a gamepad, "+
 					"click the Options menu and choose Gamepad Settings. After mapping your gamepad,"+
@@ -149,7 +247,17 @@ public class Limelight implements NvConnectionListener {
 	 * @param host the host pc to connect to. Can be a hostname or IP address.
 	 */
 	public static void createInstance(String host, String appName) {
+		createInstance(host, appName, null);
+	}
+
+	/**
+	 * Creates a new instance and starts the stream using prewarmed resources.
+	 * @param host the host pc to connect to. Can be a hostname or IP address.
+	 * @param prewarmer the prewarmer started for this host or null
+	 */
+	public static void createInstance(String host, String appName, SessionPrewarmer prewarmer) {
 		Limelight limelight = new Limelight(host);
+		limelight.setPrewarmer(prewarmer);
 
 		Preferences prefs = PreferencesManager.getPreferences();
 		StreamConfiguration streamConfig = createConfiguration(prefs.getResolution(), prefs.getBitrate(), appName, prefs.getLocalAudio());
@@ -163,6 +271,8 @@ public class Limelight implements NvConnectionListener {
 	 * @param args unused.
 	 */
 	public static void main(String args[]) {
+		final StartupProfiler profiler = StartupProfiler.getInstance();
+		
 		// Redirect logging to a file if we're running from a JAR
 		if (LibraryHelper.isRunningFromJar() && args.length == 0) {
 			try {
@@ -171,12 +281,42 @@ public class Limelight implements NvConnectionListener {
 			}
 		}
 		
+		// Native libraries and preferences don't need the UI, so load them while the look and feel is set up
+		FutureTask<String> nativeLibraries = new FutureTask<String>(new Callable<String>() {
+			public String call() {
+				profiler.begin("Native libraries");
+				try {
+					return loadNativeLibraries();
+				} finally {
+					profiler.end("Native libraries");
+				}
+			}
+		});
+		startStartupThread(nativeLibraries, "Startup - Native Libraries");
+		
+		FutureTask<Boolean> preferences = new FutureTask<Boolean>(new Callable<Boolean>() {
+			public Boolean call() {
+				profiler.begin("Preferences");
+				try {
+					// Loading the preferences creates them, so check whether they existed first
+					boolean hadPreferences = PreferencesManager.hasExistingPreferences();
+					PreferencesManager.getPreferences();
+					return hadPreferences;
+				} finally {
+					profiler.end("Preferences");
+				}
+			}
+		});
+		startStartupThread(preferences, "Startup - Preferences");
+		
 		// Native look and feel for all platforms
+		profiler.begin("Look and feel");
 		try {
 			UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
 		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException
 				| UnsupportedLookAndFeelException e) {
 		}
+		profiler.end("Look and feel");
 
 		//fix the menu bar if we are running in osx
 		if (System.getProperty("os.name").contains("Mac OS X")) {
@@ -186,21 +326,71 @@ public class Limelight implements NvConnectionListener {
 			System.setProperty("apple.laf.useScreenMenuBar", "true");
 		}
 
-		String libraryError = loadNativeLibraries();
+		String libraryError = getStartupResult(nativeLibraries);
+		boolean hadPreferences = getStartupResult(preferences);
 
 		if (libraryError == null) {
 			// launching with command line arguments
 			if (args.length == 0) {
-				createFrame();
+				profiler.begin("Main frame");
+				createFrame(hadPreferences);
+				profiler.end("Main frame");
+				profiler.finish();
 			}
 			else {
+				profiler.finish();
 				parseCommandLine(args);
 			}
 		} else {
+			profiler.finish();
 			displayUiMessage(null, libraryError, "Wrong JAR platform", JOptionPane.ERROR_MESSAGE);
 		}
 	}
 
+	private static void startStartupThread(Runnable task, String name) {
+		Thread t = new Thread(task);
+		t.setName(name);
+		t.start();
+	}
+
+	/*
+	 * Waits for a startup task, rethrowing anything it threw on this thread
+	 */
+	private static <T> T getStartupResult(FutureTask<T> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/*
+	 * Scans the given networks for hosts and prints what was found
+	 */
+	private static void scanSubnets(String ranges) {
+		try {
+			List<InetAddress> found = new SubnetScanner(new SubnetScanner.ScanListener() {
+				public void hostFound(InetAddress address) {
+					System.out.println("Found host: "+address.getHostAddress());
+				}
+
+				public void scanFailed(Exception e) {}
+			}).scan(ranges);
+			System.out.println("Found "+found.size()+" hosts");
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(3);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(3);
+		}
+	}
+
 	//TODO: make this less jank
 	private static void parseCommandLine(String[] args) {
 		String host = null;
@@ -210,6 +400,13 @@ public class Limelight implements NvConnectionListener {
 		int refresh = 60;
 		Integer bitrate = null;
 		String appName = "Steam";
+		AudioRenderer audioRenderer = null;
+		int avSyncBound = 0;
+		File inputRecording = null;
+		File inputReplay = null;
+		double inputReplaySpeed = 1;
+		Integer mouseTick = null;
+		String rawMouseDevice = null;
 		
 		Preferences prefs = PreferencesManager.getPreferences();
 		
@@ -252,6 +449,75 @@ public class Limelight implements NvConnectionListener {
 					System.err.println("Syntax error: app name expected after -app");
 					System.exit(3);
 				}
+			} else if (args[i].equals("-queuedaudio")) {
+				audioRenderer = PlatformBinding.getQueuedAudioRenderer();
+			} else if (args[i].equals("-nullaudio")) {
+				audioRenderer = PlatformBinding.getNullAudioRenderer();
+			} else if (args[i].equals("-wavaudio")) {
+				if (i + 1 < args.length){
+					audioRenderer = PlatformBinding.getWavFileAudioRenderer(new File(args[i+1]));
+					i++;
+				} else {
+					System.err.println("Syntax error: file name expected after -wavaudio");
+					System.exit(3);
+				}
+			} else if (args[i].equals("-avsync")) {
+				if (i + 1 < args.length){
+					avSyncBound = Integer.parseInt(args[i+1]);
+					i++;
+				} else {
+					System.err.println("Syntax error: offset (in ms) expected after -avsync");
+					System.exit(3);
+				}
+			} else if (args[i].equals("-mousetick")) {
+				if (i + 1 < args.length){
+					mouseTick = Integer.parseInt(args[i+1]);
+					i++;
+				} else {
+					System.err.println("Syntax error: interval (in ms) expected after -mousetick");
+					System.exit(3);
+				}
+			} else if (args[i].equals("-evdev")) {
+				if (i + 1 < args.length){
+					rawMouseDevice = args[i+1];
+					i++;
+				} else {
+					System.err.println("Syntax error: device path or auto expected after -evdev");
+					System.exit(3);
+				}
+			} else if (args[i].equals("-recordinput")) {
+				if (i + 1 < args.length){
+					inputRecording = new File(args[i+1]);
+					i++;
+				} else {
+					System.err.println("Syntax error: file name expected after -recordinput");
+					System.exit(3);
+				}
+			} else if (args[i].equals("-replayinput") || args[i].equals("-replaybench")) {
+				if (i + 2 < args.length){
+					inputReplay = new File(args[i+1]);
+					inputReplaySpeed = Double.parseDouble(args[i+2]);
+					if (args[i].equals("-replaybench")) {
+						InputReplayer.benchmark(inputReplay, inputReplaySpeed);
+						System.exit(0);
+					}
+					i += 2;
+				} else {
+					System.err.println("Syntax error: file name and speed expected after "+args[i]);
+					System.exit(3);
+				}
+			} else if (args[i].equals("-scan")) {
+				if (i + 1 < args.length){
+					scanSubnets(args[i+1]);
+					System.exit(0);
+				} else {
+					System.err.println("Syntax error: ranges expected after -scan");
+					System.exit(3);
+				}
+			} else if (args[i].equals("-gamepadbench")) {
+				NativeGamepad.stop();
+				NativeGamepad.benchmarkDelivery(1000000);
+				System.exit(0);
 			} else if (args[i].equals("-fs")) {
 				fullscreen = true;
 			} else if (args[i].equals("-la")) {
@@ -290,8 +556,22 @@ public class Limelight implements NvConnectionListener {
 		prefs.setBitrate(bitrate);
 		prefs.setFullscreen(fullscreen);
 		prefs.setLocalAudio(localAudio);
+		if (mouseTick != null) {
+			prefs.setMouseTickMs(mouseTick);
+		}
+		if (rawMouseDevice != null) {
+			prefs.setRawMouseDevice(rawMouseDevice);
+		}
 		
 		Limelight limelight = new Limelight(host);
+		limelight.setAudioRenderer(audioRenderer);
+		limelight.setAvSyncCorrection(avSyncBound);
+		if (inputRecording != null) {
+			limelight.setInputRecording(inputRecording);
+		}
+		if (inputReplay != null) {
+			limelight.setInputReplay(inputReplay, inputReplaySpeed);
+		}
 		limelight.startUp(streamConfig, prefs);
 		COMMAND_LINE_LAUNCH = true;
 	}
@@ -300,15 +580,41 @@ public class Limelight implements NvConnectionListener {
 	public void stop() {
 		connectionTerminating = true;
 
+		// Flush pending input before the connection goes away
+		streamFrame.stopInput();
+		inputDispatcher.stop();
+		if (inputRecorder != null) {
+			inputRecorder.close();
+		}
+
 		// Kill the connection to the target
 		conn.stop();
 
 		// Remove the gamepad listener
 		if (gamepad != null) {
 			GamepadListener.getInstance().removeListener(gamepad);
+			gamepad.logSummary();
+			LimeLog.info(NativeGamepad.getPollIntervalHistogram().toString());
+			LimeLog.info(NativeGamepad.getEventAgeHistogram().toString());
 		}
 		
 		int endToEndLatency = decoderRenderer.getAverageEndToEndLatency();
+		LimeLog.info("Video stats: average end-to-end latency "+endToEndLatency+
+				" ms, average decoder latency "+decoderRenderer.getAverageDecoderLatency()+" ms");
+		if (decoderRenderer instanceof AbstractCpuDecoder) {
+			long firstFrameTime = ((AbstractCpuDecoder) decoderRenderer).getFirstFrameTime();
+			if (firstFrameTime != 0) {
+				LimeLog.info("Time to first frame: "+(firstFrameTime - launchTime) / 1000000+" ms"+
+						(prewarmer != null ? " (prewarmed)" : ""));
+			}
+		}
+		if (audioRenderer instanceof InstrumentedAudioRenderer) {
+			LimeLog.info(((InstrumentedAudioRenderer) audioRenderer).getStats().toString());
+		}
+		if (syncMonitor != null) {
+			syncMonitor.logSummary();
+		}
+		
 		if (endToEndLatency != 0) {
 			displayMessage(String.format("Average client latency: %d ms",
 					endToEndLatency));
@@ -324,15 +630,16 @@ public class Limelight implements NvConnectionListener {
 	 */
 	public void stageStarting(Stage stage) {
 		LimeLog.info("Starting "+stage.getName());
+		stageStartTime = System.nanoTime();
 		streamFrame.showSpinner(stage);
 	}
 
 	/**
-	 * Callback that a stage has finished loading.
-	 * <br><b>NOTE: Currently unimplemented.</b>
+	 * Callback that a stage has finished loading. Logs how long the stage took.
 	 * @param stage the Stage that has finished.
 	 */
 	public void stageComplete(Stage stage) {
+		LimeLog.info("Completed "+stage.getName()+" in "+(System.nanoTime() - stageStartTime) / 1000000+" ms");
 	}
 
 	/**
@@ -348,10 +655,30 @@ public class Limelight implements NvConnectionListener {
 	 * Callback that the connection has finished loading and is started.
 	 */
 	public void connectionStarted() {
+		LimeLog.info("Connection started "+(System.nanoTime() - launchTime) / 1000000+" ms after launch");
 		streamFrame.hideSpinner();
 
-		gamepad = new GamepadHandler(conn);
+		gamepad = new GamepadHandler(inputDispatcher);
+		gamepad.setRecorder(inputRecorder);
 		GamepadListener.getInstance().addDeviceListener(gamepad);
+
+		if (inputReplayFile != null) {
+			Thread replayThread = new Thread() {
+				@Override
+				public void run() {
+					InputReplayer replayer = new InputReplayer(inputReplayFile);
+					try {
+						replayer.replay(streamFrame.getKeyboardHandler(),
+								streamFrame.getMouseHandler().getMotionCoalescer(), gamepad, inputReplaySpeed);
+					} catch (IOException e) {
+						LimeLog.warning("Input replay failed: "+e.getMessage());
+					}
+					LimeLog.info(replayer.toString());
+				}
+			};
+			replayThread.setName("Input - Replay");
+			replayThread.start();
+		}
 	}
 
 	/**
@@ -382,8 +709,7 @@ public class Limelight implements NvConnectionListener {
 
 		NvHTTP httpConn;
 		try {
-			httpConn = new NvHTTP(InetAddress.getByName(host),
-					uniqueId, PlatformBinding.getDeviceName(), PlatformBinding.getCryptoProvider());
+			httpConn = NvHttpProvider.getConnection(InetAddress.getByName(host), uniqueId);
 			try {
 				String serverInfo = httpConn.getServerInfo();
 				if (httpConn.getPairState(serverInfo) == PairingManager.PairState.PAIRED) {
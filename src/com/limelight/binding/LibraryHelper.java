@@ -8,20 +8,37 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.limelight.LimeLog;
+import com.limelight.settings.SettingsManager;
 
 public class LibraryHelper {
 	private static final HashSet<String> avcDependencies = new HashSet<String>();
 	private static final boolean needsDependencyExtraction;
-	private static final String libraryExtractionFolder;
+	private static String libraryExtractionFolder;
+	
+	// Extracted libraries are kept in a folder named by a hash of the bundled libraries
+	private static final File libraryCacheFolder = new File(SettingsManager.SETTINGS_DIR + File.separator + "natives");
+	private static final String EXTRACTED_MARKER = "extracted";
+	
+	// Leftovers from other versions or interrupted extractions are removed once they are this old
+	private static final long STALE_FOLDER_AGE_MS = 24 * 60 * 60 * 1000L;
 
 	private static boolean librariesExtracted = false;
 	
 	static {
 		needsDependencyExtraction = System.getProperty("os.name").contains("Windows");
-		libraryExtractionFolder = System.getProperty("java.io.tmpdir", ".") + File.separatorChar + UUID.randomUUID().toString();
-		
 		// AVC dependencies
 		if (System.getProperty("os.name").contains("Windows")) {
 			avcDependencies.add("avutil-54");
@@ -48,24 +65,161 @@ public class LibraryHelper {
 		}
 	}
 
+	/**
+	 * Makes the bundled native libraries loadable. They are extracted into a cache folder
+	 * named by a hash of the libraries, so later launches of the same JAR only check that
+	 * the files are still there.
+	 */
 	public static void prepareNativeLibraries() {
 		if (!needsDependencyExtraction || !isRunningFromJar()) {
 			return;
 		}
 		
-		// Create the native library folder
-		new File(libraryExtractionFolder).mkdirs();
-		
+		long startTime = System.nanoTime();
+		boolean cached;
+		File folder;
 		try {
-			for (String dependency : avcDependencies) {
-				extractNativeLibrary(dependency);
+			String listing = getBundledLibraryListing();
+			folder = new File(libraryCacheFolder, hashListing(listing));
+		
+			cached = isExtracted(folder, listing);
+			if (!cached) {
+				extractNativeLibraries(folder, listing);
 			}
 		} catch (IOException e) {
 			e.printStackTrace();
 			return;
 		}
 		
+		libraryExtractionFolder = folder.getPath();
 		librariesExtracted = true;
+		LimeLog.info((cached ? "Found native libraries in cache" : "Extracted native libraries")+" in "+
+				(System.nanoTime() - startTime) / 1000000+" ms: "+libraryExtractionFolder);
+		
+		if (!cached) {
+			removeStaleFolders(folder);
+		}
+	}
+	
+	/*
+	 * Lists the name, size and CRC of each bundled library. This comes from the
+	 * JAR's directory, so nothing has to be decompressed.
+	 */
+	private static String getBundledLibraryListing() throws IOException {
+		File jarPath;
+		try {
+			jarPath = new File(LibraryHelper.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+		
+		StringBuilder listing = new StringBuilder();
+		try (JarFile jar = new JarFile(jarPath)) {
+			for (String dependency : new TreeSet<String>(avcDependencies)) {
+				String libraryName = System.mapLibraryName(dependency);
+				JarEntry entry = jar.getJarEntry("binlib/"+libraryName);
+				if (entry == null) {
+					throw new FileNotFoundException("Unable to find native library in JAR: "+libraryName);
+				}
+				listing.append(libraryName).append(' ').append(entry.getSize()).append(' ')
+					.append(Long.toHexString(entry.getCrc())).append('\n');
+			}
+		}
+		return listing.toString();
+	}
+	
+	private static String hashListing(String listing) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(listing.getBytes(Charset.forName("UTF-8")));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 8; i++) {
+				hex.append(String.format("%02x", digest[i]));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE has SHA-256
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/*
+	 * Checks that a cache folder was completely extracted and that each library still has the right size
+	 */
+	private static boolean isExtracted(File folder, String listing) {
+		File marker = new File(folder, EXTRACTED_MARKER);
+		if (!marker.isFile() || marker.length() != listing.getBytes(Charset.forName("UTF-8")).length) {
+			return false;
+		}
+		
+		for (String line : listing.split("\n")) {
+			String[] fields = line.split(" ");
+			if (new File(folder, fields[0]).length() != Long.parseLong(fields[1])) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Extracts the libraries into a temporary folder and renames it into place once it is
+	 * complete, so a crash or another instance never sees a partial cache folder
+	 */
+	private static void extractNativeLibraries(File folder, String listing) throws IOException {
+		File tempFolder = new File(libraryCacheFolder, folder.getName()+".tmp-"+UUID.randomUUID().toString());
+		if (!tempFolder.mkdirs()) {
+			throw new IOException("Unable to create "+tempFolder);
+		}
+		
+		try {
+			for (String dependency : avcDependencies) {
+				extractNativeLibrary(dependency, tempFolder);
+			}
+			
+			try (Writer writer = new OutputStreamWriter(new FileOutputStream(new File(tempFolder, EXTRACTED_MARKER)), "UTF-8")) {
+				writer.write(listing);
+			}
+			
+			if (!tempFolder.renameTo(folder)) {
+				// Someone else may have finished first, otherwise replace what's there
+				if (isExtracted(folder, listing)) {
+					return;
+				}
+				deleteFolder(folder);
+				if (!tempFolder.renameTo(folder)) {
+					throw new IOException("Unable to move native libraries into "+folder);
+				}
+			}
+		} finally {
+			deleteFolder(tempFolder);
+		}
+	}
+	
+	/*
+	 * Removes cache folders from other versions and interrupted extractions. Another
+	 * running instance may still be using a folder, so only old ones are removed.
+	 */
+	private static void removeStaleFolders(File current) {
+		File[] folders = libraryCacheFolder.listFiles();
+		if (folders == null) {
+			return;
+		}
+		
+		long cutoff = System.currentTimeMillis() - STALE_FOLDER_AGE_MS;
+		for (File folder : folders) {
+			if (!folder.equals(current) && folder.lastModified() < cutoff) {
+				deleteFolder(folder);
+			}
+		}
+	}
+	
+	private static void deleteFolder(File folder) {
+		File[] files = folder.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		folder.delete();
 	}
 	
 	public static String getRunningPlatformString() {
@@ -130,22 +284,15 @@ public class LibraryHelper {
 		return new BufferedReader(new InputStreamReader(platformFile));
 	}
 	
-	private static void extractNativeLibrary(String libraryName) throws IOException {
+	private static void extractNativeLibrary(String libraryName, File folder) throws IOException {
 		// convert general library name to platform-specific name
 		libraryName = System.mapLibraryName(libraryName);
 		
-		InputStream resource = new Object().getClass().getResourceAsStream("/binlib/"+libraryName);
+		InputStream resource = LibraryHelper.class.getResourceAsStream("/binlib/"+libraryName);
 		if (resource == null) {
 			throw new FileNotFoundException("Unable to find native library in JAR: "+libraryName);
 		}
-		File destination = new File(libraryExtractionFolder+File.separatorChar+libraryName);
-		
-		// this will only delete it if it exists, and then create a new file
-		destination.delete();
-		destination.createNewFile();
-		
-		// schedule the temporary file to be deleted when the program exits
-		destination.deleteOnExit();
+		File destination = new File(folder, libraryName);
 		
 		//this is the janky java 6 way to copy a file
 		FileOutputStream fos = null;
@@ -160,6 +307,7 @@ public class LibraryHelper {
 			if (fos != null) {
 				fos.close();
 			}
+			resource.close();
 		}
 	}
 	
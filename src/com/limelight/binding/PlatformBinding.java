@@ -1,12 +1,15 @@
 package com.limelight.binding;
 
 import com.limelight.binding.audio.JavaxAudioRenderer;
+import com.limelight.binding.audio.NullAudioRenderer;
+import com.limelight.binding.audio.WavFileAudioRenderer;
 import com.limelight.binding.crypto.PcCryptoProvider;
 import com.limelight.binding.video.GLDecoderRenderer;
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.http.LimelightCryptoProvider;
 
+import java.io.File;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
@@ -16,6 +19,8 @@ import java.net.UnknownHostException;
  * @author Cameron Gutman
  */
 public class PlatformBinding {
+    private static LimelightCryptoProvider cryptoProvider;
+
     /**
      * Gets an instance of a video decoder/renderer.
      *
@@ -49,11 +54,44 @@ public class PlatformBinding {
     }
 
     /**
-     * Gets an instance of a crypto provider
+     * Gets an audio renderer that lets the audio stream queue frames on its own thread.
+     * <br>Used to compare against the default direct submit renderer.
+     *
+     * @return an audio decoder and renderer without direct submit
+     */
+    public static AudioRenderer getQueuedAudioRenderer() {
+        return new JavaxAudioRenderer(false);
+    }
+
+    /**
+     * Gets an audio renderer that discards all output.
+     * <br>Used to benchmark the audio pipeline on machines without a working mixer.
+     *
+     * @return an audio renderer that only counts samples
+     */
+    public static AudioRenderer getNullAudioRenderer() {
+        return new NullAudioRenderer();
+    }
+
+    /**
+     * Gets an audio renderer that writes all output to a WAV file.
+     *
+     * @param file the file to write the audio to
+     * @return an audio renderer that records to the given file
+     */
+    public static AudioRenderer getWavFileAudioRenderer(File file) {
+        return new WavFileAudioRenderer(file);
+    }
+
+    /**
+     * Gets the crypto provider. It is shared so the client certificate is only loaded once.
      *
      * @return a PcCryptoProvider object
      */
-    public static LimelightCryptoProvider getCryptoProvider() {
-        return new PcCryptoProvider();
+    public static synchronized LimelightCryptoProvider getCryptoProvider() {
+        if (cryptoProvider == null) {
+            cryptoProvider = new PcCryptoProvider();
+        }
+        return cryptoProvider;
     }
 }
@@ -0,0 +1,127 @@
+package com.limelight.binding;
+
+import java.net.InetAddress;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.SourceDataLine;
+
+import com.limelight.LimeLog;
+import com.limelight.binding.http.NvHttpProvider;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer;
+
+/**
+ * Does the slow one-time parts of starting a stream while the user is still picking an app:
+ * creating the video renderer (which initializes OpenGL), loading the client certificate,
+ * loading the sound system and contacting the host over HTTP.
+ * <br>Everything except the renderer is cached by the JVM or the libraries, so it is warm
+ * for the stream without being handed over. An unused renderer holds nothing that needs
+ * releasing, so discarding the prewarmer only drops it.
+ */
+public class SessionPrewarmer {
+	// The host always sends 48 kHz stereo
+	private static final AudioFormat STREAM_AUDIO_FORMAT = new AudioFormat(48000, 16, 2, true,
+			ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+
+	private final String host;
+	private final String uniqueId;
+	private Thread prewarmThread;
+	private VideoDecoderRenderer decoderRenderer;
+	private boolean rendererDone;
+
+	/**
+	 * Creates a prewarmer for a stream from the given host
+	 * @param host the host's name or address
+	 * @param uniqueId this client's unique ID
+	 */
+	public SessionPrewarmer(String host, String uniqueId) {
+		this.host = host;
+		this.uniqueId = uniqueId;
+	}
+
+	/**
+	 * Starts prewarming in the background
+	 */
+	public synchronized void start() {
+		prewarmThread = new Thread() {
+			@Override
+			public void run() {
+				long startTime = System.nanoTime();
+
+				VideoDecoderRenderer renderer = null;
+				try {
+					renderer = PlatformBinding.getVideoDecoderRenderer();
+				} catch (Exception | LinkageError e) {
+					// The stream will try again and report the failure itself
+					LimeLog.warning("Prewarm: unable to create the video renderer: "+e);
+				}
+				synchronized (SessionPrewarmer.this) {
+					decoderRenderer = renderer;
+					rendererDone = true;
+					SessionPrewarmer.this.notifyAll();
+				}
+				long rendererTime = System.nanoTime();
+
+				PlatformBinding.getCryptoProvider();
+				long cryptoTime = System.nanoTime();
+
+				try {
+					AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, STREAM_AUDIO_FORMAT));
+				} catch (Exception e) {
+					LimeLog.warning("Prewarm: no audio line available: "+e.getMessage());
+				}
+				long audioTime = System.nanoTime();
+
+				try {
+					NvHttpProvider.getConnection(InetAddress.getByName(host), uniqueId).getServerInfo();
+				} catch (Exception e) {
+					LimeLog.warning("Prewarm: unable to contact "+host+": "+e.getMessage());
+				}
+				long httpTime = System.nanoTime();
+
+				LimeLog.info("Prewarmed session in "+(httpTime - startTime) / 1000000+" ms (renderer "+
+						(rendererTime - startTime) / 1000000+" ms, crypto "+
+						(cryptoTime - rendererTime) / 1000000+" ms, audio "+
+						(audioTime - cryptoTime) / 1000000+" ms, http "+
+						(httpTime - audioTime) / 1000000+" ms)");
+			}
+		};
+		prewarmThread.setName("Session - Prewarm");
+		prewarmThread.setDaemon(true);
+		prewarmThread.start();
+	}
+
+	/**
+	 * Takes the prewarmed video renderer, waiting for it to be created if necessary.
+	 * The renderer is only handed out once.
+	 * @return the renderer or null if prewarming wasn't started or the renderer was already taken
+	 */
+	public synchronized VideoDecoderRenderer takeVideoDecoderRenderer() {
+		if (prewarmThread == null) {
+			return null;
+		}
+
+		// The rest of the prewarm can keep going, the stream doesn't need to wait for it
+		while (!rendererDone) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+
+		VideoDecoderRenderer renderer = decoderRenderer;
+		decoderRenderer = null;
+		return renderer;
+	}
+
+	/**
+	 * Drops anything prewarmed that wasn't used
+	 */
+	public synchronized void discard() {
+		decoderRenderer = null;
+	}
+}
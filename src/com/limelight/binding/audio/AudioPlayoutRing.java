@@ -0,0 +1,100 @@
+package com.limelight.binding.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer single-consumer ring of preallocated audio frames.
+ * <br>The producer copies each frame into a free slot and publishes it with an ordered
+ * store, so enqueueing never takes a lock or allocates memory.
+ */
+public class AudioPlayoutRing {
+	private final byte[][] slots;
+	private final int[] lengths;
+	private final long[] queueTimes;
+	private final int mask;
+
+	// Next slot to read and next slot to write
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Creates a ring
+	 * @param capacity the number of slots, rounded up to a power of two
+	 * @param slotSize the largest frame in bytes that can be queued
+	 */
+	public AudioPlayoutRing(int capacity, int slotSize) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+		slots = new byte[size][slotSize];
+		lengths = new int[size];
+		queueTimes = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * Copies a frame into the ring. Must only be called by the producer thread.
+	 * @param data the array containing the frame
+	 * @param offset the offset of the frame in the array
+	 * @param length the length of the frame
+	 * @param queueTime the time the frame arrived in nanoseconds
+	 * @return true if the frame was queued, false if the ring is full or the frame too large
+	 */
+	public boolean offer(byte[] data, int offset, int length, long queueTime) {
+		long t = tail.get();
+		if (t - head.get() >= slots.length) {
+			return false;
+		}
+
+		int index = (int)(t & mask);
+		if (length > slots[index].length) {
+			return false;
+		}
+
+		System.arraycopy(data, offset, slots[index], 0, length);
+		lengths[index] = length;
+		queueTimes[index] = queueTime;
+
+		// Publish the slot only after its contents are written
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Gets the oldest queued slot without removing it. Must only be called by the consumer thread.
+	 * @return the slot index or -1 if the ring is empty
+	 */
+	public int peek() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return -1;
+		}
+		return (int)(h & mask);
+	}
+
+	/**
+	 * Frees the slot returned by <code>peek()</code> so the producer can reuse it
+	 */
+	public void release() {
+		head.lazySet(head.get() + 1);
+	}
+
+	public byte[] getData(int index) {
+		return slots[index];
+	}
+
+	public int getLength(int index) {
+		return lengths[index];
+	}
+
+	public long getQueueTime(int index) {
+		return queueTimes[index];
+	}
+
+	/**
+	 * Gets the number of queued frames
+	 * @return the number of frames waiting to be played
+	 */
+	public int size() {
+		return (int)(tail.get() - head.get());
+	}
+}
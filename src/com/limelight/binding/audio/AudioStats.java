@@ -0,0 +1,142 @@
+package com.limelight.binding.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.limelight.stats.LatencyHistogram;
+
+/**
+ * Always-on counters for the audio render path. Updates are plain atomic
+ * increments so they can stay enabled in release builds.
+ */
+public class AudioStats {
+	private final AtomicLong framesReceived = new AtomicLong();
+	private final AtomicLong bytesWritten = new AtomicLong();
+	private final AtomicLong framesDropped = new AtomicLong();
+	private final AtomicLong lineReallocations = new AtomicLong();
+	private final AtomicLong underruns = new AtomicLong();
+	private final AtomicLong samplesRendered = new AtomicLong();
+
+	private volatile long firstFrameTime;
+	private volatile long lastFrameTime;
+
+	private final AtomicLong fillSamples = new AtomicLong();
+	private final AtomicLong fillPercentSum = new AtomicLong();
+	private volatile int lastFillPercent;
+
+	// 250 us buckets covering half a second
+	private final LatencyHistogram writeLatency = new LatencyHistogram("Audio arrival to write", 250, 2000);
+
+	public void frameReceived() {
+		long now = System.nanoTime();
+		if (framesReceived.getAndIncrement() == 0) {
+			firstFrameTime = now;
+		}
+		lastFrameTime = now;
+	}
+
+	/**
+	 * Counts samples that were handed to the output
+	 * @param samples the number of samples per channel
+	 */
+	public void samplesRendered(int samples) {
+		samplesRendered.addAndGet(samples);
+	}
+
+	public void frameDropped() {
+		framesDropped.incrementAndGet();
+	}
+
+	public void bytesWritten(int bytes) {
+		bytesWritten.addAndGet(bytes);
+	}
+
+	public void lineReallocated() {
+		lineReallocations.incrementAndGet();
+	}
+
+	public void lineUnderrun() {
+		underruns.incrementAndGet();
+	}
+
+	/**
+	 * Samples how full the sound line is
+	 * @param queuedBytes the bytes written to the line but not played yet
+	 * @param bufferSize the size of the line buffer
+	 */
+	public void sampleLineFill(int queuedBytes, int bufferSize) {
+		if (bufferSize <= 0) {
+			return;
+		}
+
+		int percent = (int)((100L * queuedBytes) / bufferSize);
+		lastFillPercent = percent;
+		fillPercentSum.addAndGet(percent);
+		fillSamples.incrementAndGet();
+	}
+
+	/**
+	 * Gets the histogram of time between a frame reaching the renderer and being written to the line
+	 * @return the write latency histogram
+	 */
+	public LatencyHistogram getWriteLatency() {
+		return writeLatency;
+	}
+
+	public long getFramesReceived() {
+		return framesReceived.get();
+	}
+
+	public long getFramesDropped() {
+		return framesDropped.get();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+
+	public long getLineReallocations() {
+		return lineReallocations.get();
+	}
+
+	public long getUnderruns() {
+		return underruns.get();
+	}
+
+	public long getSamplesRendered() {
+		return samplesRendered.get();
+	}
+
+	/**
+	 * Gets the rate at which samples arrived between the first and last frame.
+	 * This should match the stream's sample rate if the decoder keeps up.
+	 * @return the measured sample rate in Hz or 0 if too few frames were seen
+	 */
+	public int getEffectiveSampleRate() {
+		long elapsed = lastFrameTime - firstFrameTime;
+		if (elapsed <= 0) {
+			return 0;
+		}
+		return (int)((samplesRendered.get() * 1000000000L) / elapsed);
+	}
+
+	public int getLastFillPercent() {
+		return lastFillPercent;
+	}
+
+	public int getAverageFillPercent() {
+		long samples = fillSamples.get();
+		if (samples == 0) {
+			return 0;
+		}
+		return (int)(fillPercentSum.get() / samples);
+	}
+
+	@Override
+	public String toString() {
+		return "Audio stats: "+getFramesReceived()+" frames received, "+getFramesDropped()+" dropped, "+
+				getUnderruns()+" underruns, "+getLineReallocations()+" line reallocations, "+
+				getBytesWritten()+" bytes written, "+getSamplesRendered()+" samples at "+
+				getEffectiveSampleRate()+" Hz, average line fill "+getAverageFillPercent()+"%; "+
+				writeLatency;
+	}
+}
@@ -0,0 +1,14 @@
+package com.limelight.binding.audio;
+
+import com.limelight.nvstream.av.audio.AudioRenderer;
+
+/**
+ * An audio renderer that keeps statistics about the audio it renders
+ */
+public interface InstrumentedAudioRenderer extends AudioRenderer {
+	/**
+	 * Gets the counters for this renderer's audio path
+	 * @return the audio statistics
+	 */
+	public AudioStats getStats();
+}
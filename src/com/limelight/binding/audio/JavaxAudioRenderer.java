@@ -1,6 +1,8 @@
 package com.limelight.binding.audio;
 
 import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -11,24 +13,55 @@ import javax.sound.sampled.SourceDataLine;
 import com.limelight.LimeLog;
 import com.limelight.nvstream.av.ByteBufferDescriptor;
 import com.limelight.nvstream.av.audio.AudioRenderer;
+import com.limelight.stats.AvSyncMonitor;
+import com.limelight.utils.TimeHelper;
 
 /**
  * Audio renderer implementation
  * @author Cameron Gutman
  */
-public class JavaxAudioRenderer implements AudioRenderer {
+public class JavaxAudioRenderer implements InstrumentedAudioRenderer {
 
 	private SourceDataLine soundLine;
 	private SoundBuffer soundBuffer;
 	private byte[] lineBuffer;
 	private int channelCount;
 	private int sampleRate;
-	private boolean reallocateLines;
-	
+	private int frameSize;
+	private int bytesPerSample;
+	private boolean lineStarted;
+	private LineBufferController bufferController;
+	private final AudioStats stats = new AudioStats();
+	private AvSyncMonitor syncMonitor;
+
+	private final boolean directSubmit;
+	private AudioPlayoutRing playoutRing;
+	private volatile Thread playoutThread;
+	private volatile boolean closing;
+	private volatile Thread lineDrainer;
+
 	public static final int DEFAULT_BUFFER_SIZE = 0;
 	public static final int STARING_BUFFER_SIZE = 4096;
+	public static final int MAXIMUM_BUFFER_SIZE = 65536;
 	public static final int STAGING_BUFFERS = 3; // 3 complete frames of audio
-	
+	public static final int PLAYOUT_RING_SLOTS = 16;
+
+	/**
+	 * Creates a renderer that accepts frames directly on the receive thread
+	 */
+	public JavaxAudioRenderer() {
+		this(true);
+	}
+
+	/**
+	 * Creates a renderer
+	 * @param directSubmit true to accept frames directly on the receive thread and play them
+	 * out on our own thread, false to let the audio stream queue frames before handing them over
+	 */
+	public JavaxAudioRenderer(boolean directSubmit) {
+		this.directSubmit = directSubmit;
+	}
+
 	/**
 	 * Takes some audio data and writes it out to the renderer.
 	 * @param pcmData the array that contains the audio data
@@ -36,80 +69,348 @@ public class JavaxAudioRenderer implements AudioRenderer {
 	 * @param length the length of data to be rendered
 	 */
 	public void playDecodedAudio(byte[] pcmData, int offset, int length) {
+		if (directSubmit) {
+			submitFrame(pcmData, offset, length);
+			return;
+		}
+		
 		if (soundLine != null) {
+			long now = TimeHelper.getMonotonicMillis();
+			stats.frameReceived();
+
 			// Queue the decoded samples into the staging sound buffer
 			soundBuffer.queue(new ByteBufferDescriptor(pcmData, offset, length));
-			
+
 			int available = soundLine.available();
-			if (reallocateLines) {
-				// Kinda jank. If the queued is larger than available, we are going to have a delay
-				// so we increase the buffer size
-				if (available < soundBuffer.size()) {
-					LimeLog.warning("buffer too full, buffer size: " + soundLine.getBufferSize());
-					int currentBuffer = soundLine.getBufferSize();
-					soundLine.close();
-					createSoundLine(currentBuffer*2);
-					if (soundLine != null) {
-						available = soundLine.available();
-						LimeLog.warning("creating new line with buffer size: " + soundLine.getBufferSize());
-					}
-					else {
-						available = 0;
-						LimeLog.warning("failed to create sound line");
-					}
+			stats.sampleLineFill(soundLine.getBufferSize() - available, soundLine.getBufferSize());
+			if (lineStarted && available >= soundLine.getBufferSize()) {
+				// The line played out everything we gave it before this frame arrived
+				stats.lineUnderrun();
+				bufferController.lineUnderrun(now);
+			}
+			else if (available < soundBuffer.size()) {
+				// The queued data doesn't fit so we are going to have a delay
+				bufferController.lineOverflow(now);
+			}
+			else {
+				bufferController.lineStable(now);
+			}
+
+			if (bufferController.isResizePending() && canReallocate(available)) {
+				if (!reallocateSoundLine(now)) {
+					return;
 				}
+				available = soundLine.available();
+			}
+
+			if (syncMonitor != null) {
+				available = applySyncCorrection(available);
 			}
-			
+
 			// If there's space available in the sound line, pull some data out
 			// of the staging buffer and write it to the sound line
 			if (available > 0) {
+				long arrivalTime = soundBuffer.getOldestQueueTime();
+				int queuedInLine = soundLine.getBufferSize() - available;
 				int written = soundBuffer.fill(lineBuffer, 0, available);
 				if (written > 0) {
 					soundLine.write(lineBuffer, 0, written);
+					if (syncMonitor != null) {
+						// The new data plays once everything already in the line is played out
+						long presentTime = System.nanoTime() +
+								(queuedInLine * 1000000000L) / ((long) sampleRate * bytesPerSample);
+						syncMonitor.audioFramePresented(arrivalTime, presentTime);
+					}
+					stats.bytesWritten(written);
+					stats.samplesRendered(written / bytesPerSample);
+					lineStarted = true;
 				}
 			}
 		}
 	}
 
+	/*
+	 * Called on the receive thread in direct submit mode. This only copies the frame
+	 * into the playout ring so it never blocks on the sound line.
+	 */
+	private void submitFrame(byte[] pcmData, int offset, int length) {
+		if (playoutRing == null) {
+			return;
+		}
+
+		stats.frameReceived();
+		if (!playoutRing.offer(pcmData, offset, length, System.nanoTime())) {
+			stats.frameDropped();
+			return;
+		}
+
+		// The ring publishes with an ordered store, so checking whether the playout thread
+		// is parked could race with it parking. Unparking always is cheap at one call per frame
+		// and the permit it leaves means the wakeup can't be lost.
+		LockSupport.unpark(playoutThread);
+	}
+
+	/*
+	 * Plays the oldest frame in the playout ring. This runs the same buffer sizing
+	 * logic as the queued path but may block on the sound line since it has its own thread.
+	 */
+	private boolean playOutFrame() {
+		long now = TimeHelper.getMonotonicMillis();
+
+		// Keep the same amount of staged audio as the queued path
+		while (playoutRing.size() > STAGING_BUFFERS + 1) {
+			playoutRing.release();
+			stats.frameDropped();
+		}
+
+		int available = soundLine.available();
+		stats.sampleLineFill(soundLine.getBufferSize() - available, soundLine.getBufferSize());
+		if (lineStarted && available >= soundLine.getBufferSize()) {
+			stats.lineUnderrun();
+			bufferController.lineUnderrun(now);
+		}
+		else if (available < playoutRing.size() * frameSize) {
+			bufferController.lineOverflow(now);
+		}
+		else {
+			bufferController.lineStable(now);
+		}
+
+		if (bufferController.isResizePending() && canReallocate(available)) {
+			if (!reallocateSoundLine(now)) {
+				return false;
+			}
+			available = soundLine.available();
+		}
+
+		if (syncMonitor != null) {
+			available = applySyncCorrection(available);
+		}
+
+		int slot = playoutRing.peek();
+		if (slot < 0) {
+			return true;
+		}
+
+		int length = playoutRing.getLength(slot);
+		int queuedInLine = soundLine.getBufferSize() - available;
+		soundLine.write(playoutRing.getData(slot), 0, length);
+
+		long writeTime = System.nanoTime();
+		long queueTime = playoutRing.getQueueTime(slot);
+		playoutRing.release();
+
+		stats.getWriteLatency().recordNanos(writeTime - queueTime);
+		stats.bytesWritten(length);
+		stats.samplesRendered(length / bytesPerSample);
+		lineStarted = true;
+
+		if (syncMonitor != null) {
+			long presentTime = writeTime +
+					(queuedInLine * 1000000000L) / ((long) sampleRate * bytesPerSample);
+			syncMonitor.audioFramePresented(queueTime, presentTime);
+		}
+
+		return true;
+	}
+
+	private void startPlayoutThread() {
+		playoutThread = new Thread() {
+			@Override
+			public void run() {
+				while (!closing) {
+					if (playoutRing.size() == 0) {
+						// Sleep until the next frame is submitted or the stream closes
+						LockSupport.park(this);
+						continue;
+					}
+
+					if (!playOutFrame()) {
+						return;
+					}
+				}
+			}
+		};
+		playoutThread.setPriority(Thread.MAX_PRIORITY - 1);
+		playoutThread.setName("Audio - Playout");
+		playoutThread.start();
+	}
+
 	/**
 	 * Callback for when the stream session is closing and the audio renderer should stop.
 	 */
 	public void streamClosing() {
+		if (playoutThread != null) {
+			closing = true;
+			LockSupport.unpark(playoutThread);
+			try {
+				playoutThread.join();
+			} catch (InterruptedException e) {}
+			playoutThread = null;
+		}
+
+		// Don't leave the line that's taking over unstarted if the old one is still playing out
+		Thread drainer = lineDrainer;
+		if (drainer != null) {
+			drainer.interrupt();
+			try {
+				drainer.join();
+			} catch (InterruptedException e) {}
+			lineDrainer = null;
+		}
+
 		if (soundLine != null) {
 			soundLine.close();
 		}
+
+		if (bufferController != null) {
+			bufferController.logSummary(TimeHelper.getMonotonicMillis());
+		}
+	}
+
+	/*
+	 * Drops a staged frame when audio lags video and pads the line with a frame of
+	 * silence when audio leads video. Returns the space left in the sound line.
+	 */
+	private int applySyncCorrection(int available) {
+		switch (syncMonitor.getAudioCorrection()) {
+		case AvSyncMonitor.CORRECTION_DROP_AUDIO:
+			if (directSubmit) {
+				if (playoutRing.size() > 1) {
+					playoutRing.release();
+					stats.frameDropped();
+				}
+			}
+			else if (soundBuffer.dropOldest()) {
+				stats.frameDropped();
+			}
+			break;
+		case AvSyncMonitor.CORRECTION_DELAY_AUDIO:
+			if (available >= frameSize) {
+				Arrays.fill(lineBuffer, 0, frameSize, (byte) 0);
+				soundLine.write(lineBuffer, 0, frameSize);
+				available -= frameSize;
+			}
+			break;
+		}
+		return available;
+	}
+
+	/*
+	 * Checks whether a pending resize can be done now. It waits while a previous line is
+	 * still playing out, and until the audio queued in the line would fit in the new one,
+	 * since about that much more arrives while the old line plays out.
+	 */
+	private boolean canReallocate(int available) {
+		Thread drainer = lineDrainer;
+		if (drainer != null && drainer.isAlive()) {
+			return false;
+		}
+
+		int queuedInLine = soundLine.getBufferSize() - available;
+		return queuedInLine + frameSize <= bufferController.getPendingBufferSize();
+	}
+
+	/*
+	 * Reopens the sound line with the size requested by the buffer controller. The new
+	 * line is opened before the old one is closed so the switch doesn't wait for the mixer.
+	 * If the old line still holds audio, the new line is filled without being started while
+	 * the old one plays out on another thread, then takes over, so nothing queued is lost.
+	 * The staging buffer is kept.
+	 */
+	private boolean reallocateSoundLine(long now) {
+		SourceDataLine oldLine = soundLine;
+		boolean oldLineEmpty = oldLine.available() >= oldLine.getBufferSize();
+		SourceDataLine newLine = openSoundLine(bufferController.getPendingBufferSize(), oldLineEmpty);
+		if (newLine == null) {
+			// Some mixers only allow one line at a time, so the old one has to finish first
+			oldLine.drain();
+			oldLine.close();
+			newLine = openSoundLine(bufferController.getPendingBufferSize(), true);
+			if (newLine == null) {
+				LimeLog.warning("failed to create sound line");
+				soundLine = null;
+				return false;
+			}
+		}
+		else if (oldLineEmpty) {
+			oldLine.close();
+		}
+		else {
+			startLineDrainer(oldLine, newLine);
+		}
+
+		soundLine = newLine;
+		lineBuffer = new byte[soundLine.getBufferSize()];
+
+		bufferController.resizeComplete(now, soundLine.getBufferSize());
+		stats.lineReallocated();
+		lineStarted = false;
+		return true;
+	}
+
+	/*
+	 * Plays out the rest of the old line, then starts the new line in its place
+	 */
+	private void startLineDrainer(final SourceDataLine oldLine, final SourceDataLine newLine) {
+		Thread drainer = new Thread() {
+			@Override
+			public void run() {
+				oldLine.drain();
+				newLine.start();
+				oldLine.close();
+			}
+		};
+		drainer.setPriority(Thread.MAX_PRIORITY - 1);
+		drainer.setName("Audio - Line Drain");
+		drainer.setDaemon(true);
+		lineDrainer = drainer;
+		drainer.start();
 	}
 
 	private boolean createSoundLine(int bufferSize) {
+		SourceDataLine line = openSoundLine(bufferSize, true);
+		if (line == null) {
+			return false;
+		}
+
+		soundLine = line;
+		lineBuffer = new byte[soundLine.getBufferSize()];
+		return true;
+	}
+
+	/*
+	 * Opens a sound line for the stream's format, starting it if asked to. Returns null if no line is available.
+	 */
+	private SourceDataLine openSoundLine(int bufferSize, boolean start) {
 		AudioFormat audioFormat = new AudioFormat(sampleRate, 16, channelCount, true, ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
-		
+
 		DataLine.Info info;
-		
+
 		if (bufferSize == DEFAULT_BUFFER_SIZE) {
 			info = new DataLine.Info(SourceDataLine.class, audioFormat);
 		}
 		else {
 			info = new DataLine.Info(SourceDataLine.class, audioFormat, bufferSize);
 		}
-		
+
 		try {
-			soundLine = (SourceDataLine) AudioSystem.getLine(info);
-			
+			SourceDataLine line = (SourceDataLine) AudioSystem.getLine(info);
+
 			if (bufferSize == DEFAULT_BUFFER_SIZE) {
-				soundLine.open(audioFormat);
+				line.open(audioFormat);
 			}
 			else {
-				soundLine.open(audioFormat, bufferSize);
+				line.open(audioFormat, bufferSize);
 			}
-			
-			soundLine.start();
-			lineBuffer = new byte[soundLine.getBufferSize()];
-			soundBuffer = new SoundBuffer(STAGING_BUFFERS);
-		} catch (LineUnavailableException e) {
-			return false;
+
+			if (start) {
+				line.start();
+			}
+			return line;
+		} catch (LineUnavailableException | IllegalArgumentException e) {
+			return null;
 		}
-		
-		return true;
 	}
 
 	/**
@@ -122,26 +423,60 @@ public class JavaxAudioRenderer implements AudioRenderer {
 	public boolean streamInitialized(int channelCount, int channelMask, int samplesPerFrame, int sampleRate) {
 		this.channelCount = channelCount;
 		this.sampleRate = sampleRate;
-		
-		// Workaround OS X's bad Java mixer
-		if (System.getProperty("os.name").contains("Mac OS X")) {
-			if (!createSoundLine(STARING_BUFFER_SIZE)) {
-				return false;
-			}
-			reallocateLines = true;
+		this.bytesPerSample = channelCount * 2;
+		this.frameSize = samplesPerFrame * bytesPerSample;
+
+		// Start small on every platform and let the controller grow the line
+		// buffer only as far as this machine's mixer actually needs
+		long now = TimeHelper.getMonotonicMillis();
+		bufferController = new LineBufferController(Math.max(STARING_BUFFER_SIZE, 2 * frameSize),
+				MAXIMUM_BUFFER_SIZE, now);
+
+		if (!createSoundLine(bufferController.getBufferSize())) {
+			return false;
 		}
-		else {
-			if (!createSoundLine(DEFAULT_BUFFER_SIZE)) {
-				return false;
-			}
-			reallocateLines = false;
+
+		if (soundLine.getBufferSize() != bufferController.getBufferSize()) {
+			bufferController.resizeComplete(now, soundLine.getBufferSize());
 		}
-		
+
+		soundBuffer = new SoundBuffer(STAGING_BUFFERS, stats);
+		lineStarted = false;
+
+		if (directSubmit) {
+			playoutRing = new AudioPlayoutRing(PLAYOUT_RING_SLOTS, frameSize);
+			closing = false;
+			startPlayoutThread();
+			LimeLog.info("Audio frames are submitted directly to the playout thread");
+		}
+
 		return true;
 	}
 
 	public int getCapabilities() {
-		return 0;
+		return directSubmit ? AudioRenderer.CAPABILITY_DIRECT_SUBMIT : 0;
+	}
+
+	public AudioStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Sets the monitor that audio presentation times are reported to. If the monitor
+	 * has a correction bound, the renderer will also drop or pad audio to stay in sync.
+	 * @param syncMonitor the A/V sync monitor or null to stop reporting
+	 */
+	public void setSyncMonitor(AvSyncMonitor syncMonitor) {
+		this.syncMonitor = syncMonitor;
+	}
+
+	/**
+	 * Gets the average time between a decoded frame reaching the renderer
+	 * and being written out to the sound line
+	 * @return the average latency in milliseconds
+	 */
+	public int getAverageRenderLatency() {
+		return (int)(stats.getWriteLatency().getMeanUs() / 1000);
 	}
 
 }
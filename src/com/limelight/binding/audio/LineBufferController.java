@@ -0,0 +1,222 @@
+package com.limelight.binding.audio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.limelight.LimeLog;
+
+/**
+ * Decides how large the audio line buffer should be. The buffer starts small,
+ * doubles when the line underruns or overflows, and halves again after a
+ * sustained period without any glitches.
+ */
+public class LineBufferController {
+	/** Time without glitches before the buffer is allowed to shrink */
+	public static final long STABLE_PERIOD_MS = 10000;
+
+	/** Minimum time between two growth steps so one burst doesn't balloon the buffer */
+	public static final long GROW_HOLDOFF_MS = 500;
+
+	private final int minBufferSize;
+	private final int maxBufferSize;
+
+	private int bufferSize;
+	private int pendingBufferSize;
+
+	private long lastResizeTime;
+	private long lastGlitchTime;
+
+	private int underruns;
+	private int overflows;
+
+	private final long startTime;
+	private long weightedSizeSum;
+	private long lastSampleTime;
+
+	private final ArrayList<SizeChange> history = new ArrayList<SizeChange>();
+
+	/**
+	 * Represents one change of the line buffer size
+	 */
+	public static class SizeChange {
+		public final long timestamp;
+		public final int bufferSize;
+		public final String reason;
+
+		public SizeChange(long timestamp, int bufferSize, String reason) {
+			this.timestamp = timestamp;
+			this.bufferSize = bufferSize;
+			this.reason = reason;
+		}
+	}
+
+	/**
+	 * Creates a new controller that keeps the buffer between the given bounds
+	 * @param minBufferSize the starting and smallest buffer size in bytes
+	 * @param maxBufferSize the largest buffer size in bytes
+	 * @param now the current monotonic time in milliseconds
+	 */
+	public LineBufferController(int minBufferSize, int maxBufferSize, long now) {
+		this.minBufferSize = minBufferSize;
+		this.maxBufferSize = Math.max(minBufferSize, maxBufferSize);
+		this.bufferSize = minBufferSize;
+		this.pendingBufferSize = minBufferSize;
+		this.startTime = now;
+		this.lastSampleTime = now;
+		this.lastResizeTime = now;
+		this.lastGlitchTime = now;
+
+		history.add(new SizeChange(0, minBufferSize, "initial"));
+	}
+
+	/**
+	 * Gets the buffer size the line is currently opened with
+	 * @return the current buffer size in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Checks whether the controller wants the line to be reopened with a new size
+	 * @return true if a resize is pending
+	 */
+	public boolean isResizePending() {
+		return pendingBufferSize != bufferSize;
+	}
+
+	/**
+	 * Gets the buffer size the line should be reopened with
+	 * @return the requested buffer size in bytes
+	 */
+	public int getPendingBufferSize() {
+		return pendingBufferSize;
+	}
+
+	/**
+	 * Notifies the controller that the line drained completely before new data arrived
+	 * @param now the current monotonic time in milliseconds
+	 */
+	public void lineUnderrun(long now) {
+		underruns++;
+		grow(now, "underrun");
+	}
+
+	/**
+	 * Notifies the controller that queued data did not fit into the line
+	 * @param now the current monotonic time in milliseconds
+	 */
+	public void lineOverflow(long now) {
+		overflows++;
+		grow(now, "overflow");
+	}
+
+	/**
+	 * Notifies the controller that a frame was written without any glitch.
+	 * This may schedule a shrink if the line has been stable for long enough.
+	 * @param now the current monotonic time in milliseconds
+	 */
+	public void lineStable(long now) {
+		if (pendingBufferSize > minBufferSize &&
+				now - lastGlitchTime >= STABLE_PERIOD_MS &&
+				now - lastResizeTime >= STABLE_PERIOD_MS) {
+			pendingBufferSize = Math.max(minBufferSize, pendingBufferSize / 2);
+			lastResizeTime = now;
+		}
+	}
+
+	/**
+	 * Records the buffer size the line was actually opened with. The mixer
+	 * is free to round the requested size, so this may differ from the pending size.
+	 * @param now the current monotonic time in milliseconds
+	 * @param actualBufferSize the buffer size reported by the line
+	 */
+	public void resizeComplete(long now, int actualBufferSize) {
+		sampleSize(now);
+
+		String reason;
+		if (actualBufferSize > bufferSize) {
+			reason = "grow";
+		}
+		else if (actualBufferSize < bufferSize) {
+			reason = "shrink";
+		}
+		else {
+			reason = "reopen";
+		}
+		LimeLog.info("Audio line buffer "+reason+": "+bufferSize+" -> "+actualBufferSize+" bytes");
+
+		bufferSize = actualBufferSize;
+		pendingBufferSize = actualBufferSize;
+		lastResizeTime = now;
+
+		synchronized (history) {
+			history.add(new SizeChange(now - startTime, actualBufferSize, reason));
+		}
+	}
+
+	private void grow(long now, String reason) {
+		lastGlitchTime = now;
+
+		if (pendingBufferSize >= maxBufferSize || now - lastResizeTime < GROW_HOLDOFF_MS) {
+			return;
+		}
+
+		LimeLog.warning("Audio line "+reason+" with buffer size "+bufferSize);
+		pendingBufferSize = Math.min(maxBufferSize, pendingBufferSize * 2);
+		lastResizeTime = now;
+	}
+
+	private void sampleSize(long now) {
+		weightedSizeSum += (now - lastSampleTime) * bufferSize;
+		lastSampleTime = now;
+	}
+
+	public int getUnderrunCount() {
+		return underruns;
+	}
+
+	public int getOverflowCount() {
+		return overflows;
+	}
+
+	/**
+	 * Gets every size change since the controller was created
+	 * @return a snapshot of the size history
+	 */
+	public List<SizeChange> getSizeHistory() {
+		synchronized (history) {
+			return Collections.unmodifiableList(new ArrayList<SizeChange>(history));
+		}
+	}
+
+	/**
+	 * Gets the time-weighted average buffer size over the lifetime of the controller
+	 * @param now the current monotonic time in milliseconds
+	 * @return the average buffer size in bytes
+	 */
+	public int getAverageBufferSize(long now) {
+		sampleSize(now);
+
+		long elapsed = now - startTime;
+		if (elapsed <= 0) {
+			return bufferSize;
+		}
+		return (int)(weightedSizeSum / elapsed);
+	}
+
+	/**
+	 * Writes a summary of the buffer size telemetry to the log
+	 * @param now the current monotonic time in milliseconds
+	 */
+	public void logSummary(long now) {
+		StringBuilder str = new StringBuilder();
+		str.append("Audio line buffer: average ").append(getAverageBufferSize(now)).append(" bytes, ");
+		str.append(underruns).append(" underruns, ").append(overflows).append(" overflows; sizes:");
+		for (SizeChange change : getSizeHistory()) {
+			str.append(' ').append(change.bufferSize).append('@').append(change.timestamp).append("ms");
+		}
+		LimeLog.info(str.toString());
+	}
+}
@@ -0,0 +1,37 @@
+package com.limelight.binding.audio;
+
+import com.limelight.LimeLog;
+
+/**
+ * Audio renderer that discards all PCM data while counting samples and frame timing.
+ * This allows the audio decode pipeline to be benchmarked without a working mixer.
+ */
+public class NullAudioRenderer implements InstrumentedAudioRenderer {
+
+	private final AudioStats stats = new AudioStats();
+	private int bytesPerSample;
+
+	public boolean streamInitialized(int channelCount, int channelMask, int samplesPerFrame, int sampleRate) {
+		this.bytesPerSample = channelCount * 2;
+
+		LimeLog.info("Discarding audio output ("+channelCount+" channels at "+sampleRate+" Hz)");
+		return true;
+	}
+
+	public void playDecodedAudio(byte[] pcmData, int offset, int length) {
+		stats.frameReceived();
+		stats.bytesWritten(length);
+		stats.samplesRendered(length / bytesPerSample);
+	}
+
+	public void streamClosing() {
+	}
+
+	public int getCapabilities() {
+		return 0;
+	}
+
+	public AudioStats getStats() {
+		return stats;
+	}
+}
@@ -7,37 +7,81 @@ import com.limelight.nvstream.av.ByteBufferDescriptor;
 
 public class SoundBuffer {
 	
-	private LinkedList<ByteBufferDescriptor> bufferList;
+	private LinkedList<QueuedBuffer> bufferList;
 	private int maxBuffers;
+	private AudioStats stats;
+
+	private static class QueuedBuffer {
+		public final ByteBufferDescriptor desc;
+		public final long queueTime;
+
+		public QueuedBuffer(ByteBufferDescriptor desc, long queueTime) {
+			this.desc = desc;
+			this.queueTime = queueTime;
+		}
+	}
 	
 	public SoundBuffer(int maxBuffers) {
-		this.bufferList = new LinkedList<ByteBufferDescriptor>();
+		this(maxBuffers, null);
+	}
+
+	public SoundBuffer(int maxBuffers, AudioStats stats) {
+		this.bufferList = new LinkedList<QueuedBuffer>();
 		this.maxBuffers = maxBuffers;
+		this.stats = stats;
 	}
 	
 	public void queue(ByteBufferDescriptor buff) {
 		if (bufferList.size() > maxBuffers) {
 			bufferList.removeFirst();
+			if (stats != null) {
+				stats.frameDropped();
+			}
 		}
 		
-		bufferList.addLast(buff);
+		bufferList.addLast(new QueuedBuffer(buff, System.nanoTime()));
 	}
 	
 	public int size() {
 		int size = 0;
-		for (ByteBufferDescriptor desc : bufferList) {
-			size += desc.length;
+		for (QueuedBuffer queued : bufferList) {
+			size += queued.desc.length;
 		}
 		return size;
 	}
 	
+	/**
+	 * Gets the time the oldest staged buffer was queued
+	 * @return the queue time in nanoseconds or -1 if nothing is staged
+	 */
+	public long getOldestQueueTime() {
+		if (bufferList.isEmpty()) {
+			return -1;
+		}
+		return bufferList.getFirst().queueTime;
+	}
+	
+	/**
+	 * Discards the oldest staged buffer
+	 * @return true if a buffer was discarded
+	 */
+	public boolean dropOldest() {
+		if (bufferList.isEmpty()) {
+			return false;
+		}
+		bufferList.removeFirst();
+		return true;
+	}
+	
 	public int fill(byte[] data, int offset, int length) {
 		int filled = 0;
+		long now = System.nanoTime();
 		
 		ByteBuffer bb = ByteBuffer.wrap(data);
 		bb.position(offset);
 		while (length > 0 && !bufferList.isEmpty()) {
-			ByteBufferDescriptor buff = bufferList.getFirst();
+			QueuedBuffer queued = bufferList.getFirst();
+			ByteBufferDescriptor buff = queued.desc;
 			
 			if (buff.length > length) {
 				break;
@@ -47,6 +91,10 @@ public class SoundBuffer {
 			length -= buff.length;
 			filled += buff.length;
 			
+			if (stats != null) {
+				stats.getWriteLatency().recordNanos(now - queued.queueTime);
+			}
+
 			bufferList.removeFirst();
 		}
 		
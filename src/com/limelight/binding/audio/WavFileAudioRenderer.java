@@ -0,0 +1,193 @@
+package com.limelight.binding.audio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.limelight.LimeLog;
+
+/**
+ * Audio renderer that streams PCM data into a WAV file. Frames are copied and handed
+ * to a writer thread so the audio receive path never blocks on disk I/O.
+ */
+public class WavFileAudioRenderer implements InstrumentedAudioRenderer {
+	private static final int WAV_HEADER_SIZE = 44;
+	private static final int MAX_QUEUED_FRAMES = 500;
+
+	private final File file;
+	private final AudioStats stats = new AudioStats();
+
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private Thread writerThread;
+	private LinkedBlockingQueue<QueuedFrame> frameQueue;
+	private volatile boolean closing;
+
+	private int channelCount;
+	private int sampleRate;
+	private int bytesPerSample;
+	private long dataLength;
+
+	private static class QueuedFrame {
+		public final ByteBuffer data;
+		public final long queueTime;
+
+		public QueuedFrame(ByteBuffer data, long queueTime) {
+			this.data = data;
+			this.queueTime = queueTime;
+		}
+	}
+
+	/**
+	 * Creates a renderer that will write to the given file
+	 * @param file the WAV file to create or overwrite
+	 */
+	public WavFileAudioRenderer(File file) {
+		this.file = file;
+	}
+
+	public boolean streamInitialized(int channelCount, int channelMask, int samplesPerFrame, int sampleRate) {
+		this.channelCount = channelCount;
+		this.sampleRate = sampleRate;
+		this.bytesPerSample = channelCount * 2;
+
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(0);
+			channel = raf.getChannel();
+
+			// Reserve room for the header which is written once the length is known
+			channel.write(buildHeader(0), 0);
+			channel.position(WAV_HEADER_SIZE);
+		} catch (IOException e) {
+			LimeLog.severe("Unable to open WAV output file: "+e.getMessage());
+			return false;
+		}
+
+		frameQueue = new LinkedBlockingQueue<QueuedFrame>(MAX_QUEUED_FRAMES);
+		writerThread = new Thread() {
+			@Override
+			public void run() {
+				for (;;) {
+					QueuedFrame frame;
+					try {
+						frame = frameQueue.poll(100, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					if (frame == null) {
+						// Only exit once everything queued before closing is written
+						if (closing) {
+							return;
+						}
+						continue;
+					}
+
+					try {
+						while (frame.data.hasRemaining()) {
+							dataLength += channel.write(frame.data);
+						}
+						stats.getWriteLatency().recordNanos(System.nanoTime() - frame.queueTime);
+					} catch (IOException e) {
+						LimeLog.warning("Failed to write WAV data: "+e.getMessage());
+						return;
+					}
+				}
+			}
+		};
+		writerThread.setName("Audio - WAV Writer");
+		writerThread.start();
+
+		LimeLog.info("Writing audio output to "+file.getAbsolutePath());
+		return true;
+	}
+
+	public void playDecodedAudio(byte[] pcmData, int offset, int length) {
+		if (frameQueue == null) {
+			return;
+		}
+
+		stats.frameReceived();
+
+		// The decoder reuses its output buffer, so we need our own copy
+		ByteBuffer copy = ByteBuffer.allocate(length);
+		if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+			copy.put(pcmData, offset, length);
+		}
+		else {
+			// WAV samples are always little endian
+			for (int i = 0; i + 1 < length; i += 2) {
+				copy.put(pcmData[offset + i + 1]);
+				copy.put(pcmData[offset + i]);
+			}
+		}
+		copy.flip();
+
+		if (frameQueue.offer(new QueuedFrame(copy, System.nanoTime()))) {
+			stats.bytesWritten(length);
+			stats.samplesRendered(length / bytesPerSample);
+		}
+		else {
+			stats.frameDropped();
+		}
+	}
+
+	public void streamClosing() {
+		if (writerThread == null) {
+			return;
+		}
+
+		// The writer thread isn't interrupted because that would close the file channel
+		closing = true;
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {}
+
+		try {
+			channel.write(buildHeader(dataLength), 0);
+			raf.close();
+		} catch (IOException e) {
+			LimeLog.warning("Failed to finish WAV file: "+e.getMessage());
+		}
+
+		writerThread = null;
+	}
+
+	private ByteBuffer buildHeader(long dataLength) {
+		ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		int dataSize = (int) Math.min(dataLength, 0xFFFFFFFFL - 36);
+
+		header.put(new byte[] {'R', 'I', 'F', 'F'});
+		header.putInt(36 + dataSize);
+		header.put(new byte[] {'W', 'A', 'V', 'E'});
+
+		header.put(new byte[] {'f', 'm', 't', ' '});
+		header.putInt(16); // PCM format chunk size
+		header.putShort((short) 1); // PCM
+		header.putShort((short) channelCount);
+		header.putInt(sampleRate);
+		header.putInt(sampleRate * bytesPerSample); // Byte rate
+		header.putShort((short) bytesPerSample); // Block align
+		header.putShort((short) 16); // Bits per sample
+
+		header.put(new byte[] {'d', 'a', 't', 'a'});
+		header.putInt(dataSize);
+
+		header.flip();
+		return header;
+	}
+
+	public int getCapabilities() {
+		return 0;
+	}
+
+	public AudioStats getStats() {
+		return stats;
+	}
+}
@@ -0,0 +1,64 @@
+package com.limelight.binding.http;
+
+import java.net.InetAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+import com.limelight.LimeLog;
+import com.limelight.binding.PlatformBinding;
+import com.limelight.nvstream.http.LimelightCryptoProvider;
+import com.limelight.nvstream.http.NvHTTP;
+
+/**
+ * Hands out one <code>NvHTTP</code> per host, unique ID and client certificate for the
+ * life of the process, so the HTTP client, pairing state and client certificate are set
+ * up once instead of for every window or command that talks to the host.
+ * <br>Note that <code>NvHTTP</code> currently disables connection pooling and creates a
+ * new TLS context per request, so each request still makes its own connection.
+ */
+public class NvHttpProvider {
+	private static final HashMap<String, NvHTTP> connections = new HashMap<String, NvHTTP>();
+
+	/**
+	 * Gets the shared HTTP connection to a host
+	 * @param address the host's address
+	 * @param uniqueId this client's unique ID
+	 * @return the connection to the host
+	 */
+	public static synchronized NvHTTP getConnection(InetAddress address, String uniqueId) {
+		LimelightCryptoProvider crypto = PlatformBinding.getCryptoProvider();
+		String key = address.getHostAddress()+"/"+uniqueId+"/"+getCertificateFingerprint(crypto);
+
+		NvHTTP conn = connections.get(key);
+		if (conn == null) {
+			long startTime = System.nanoTime();
+			conn = new NvHTTP(address, uniqueId, PlatformBinding.getDeviceName(), crypto);
+			connections.put(key, conn);
+			LimeLog.info("Created HTTP client for "+address.getHostAddress()+" in "+
+					(System.nanoTime() - startTime) / 1000000+" ms");
+		}
+		return conn;
+	}
+
+	/*
+	 * A new certificate means a new TLS identity, so it can't share a client with the old one
+	 */
+	private static String getCertificateFingerprint(LimelightCryptoProvider crypto) {
+		byte[] cert = crypto.getPemEncodedClientCertificate();
+		if (cert == null) {
+			return "";
+		}
+
+		try {
+			StringBuilder fingerprint = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(cert)) {
+				fingerprint.append(String.format("%02x", b));
+			}
+			return fingerprint.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every JRE has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
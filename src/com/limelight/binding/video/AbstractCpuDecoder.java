@@ -8,6 +8,7 @@ import com.limelight.nvstream.av.DecodeUnit;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.av.video.VideoDepacketizer;
 import com.limelight.nvstream.av.video.cpu.AvcDecoder;
+import com.limelight.stats.AvSyncMonitor;
 
 public abstract class AbstractCpuDecoder extends VideoDecoderRenderer {
 	
@@ -21,8 +22,11 @@ public abstract class AbstractCpuDecoder extends VideoDecoderRenderer {
 	private ByteBuffer decoderBuffer;
 	
 	private int totalFrames;
+	// Written by the decoder thread, read when the stream stops
+	private volatile long firstFrameTime;
 	private long totalDecoderTimeMs;
 	private int inputPaddingSize;
+	private AvSyncMonitor syncMonitor;
 	
 	public abstract boolean setupInternal(Object renderTarget, int drFlags);
 	
@@ -138,7 +142,16 @@ public abstract class AbstractCpuDecoder extends VideoDecoderRenderer {
 		boolean success = (AvcDecoder.decodeBuffer(decoderBuffer, decodeUnit.getDataLength()) == 0);
 		
 		if (success) {
-			long timeAfterDecode = System.nanoTime() / 1000000L;
+			long timeAfterDecodeNs = System.nanoTime();
+			long timeAfterDecode = timeAfterDecodeNs / 1000000L;
+			
+			if (firstFrameTime == 0) {
+				firstFrameTime = timeAfterDecodeNs;
+			}
+			
+			if (syncMonitor != null) {
+				syncMonitor.videoFramePresented(decodeUnit.getReceiveTimestamp(), timeAfterDecodeNs);
+			}
 			
 		    // Add delta time to the totals (excluding probable outliers)
 		    long delta = timeAfterDecode - decodeUnit.getReceiveTimestamp();
@@ -155,6 +168,22 @@ public abstract class AbstractCpuDecoder extends VideoDecoderRenderer {
 		return 0;
 	}
 
+	/**
+	 * Sets the monitor that decoded frame times are reported to
+	 * @param syncMonitor the A/V sync monitor or null to stop reporting
+	 */
+	public void setSyncMonitor(AvSyncMonitor syncMonitor) {
+		this.syncMonitor = syncMonitor;
+	}
+
+	/**
+	 * Gets when the first frame was decoded
+	 * @return the time on the <code>System.nanoTime()</code> clock or 0 if no frame was decoded
+	 */
+	public long getFirstFrameTime() {
+		return firstFrameTime;
+	}
+
 	public int getAverageDecoderLatency() {
 		if (totalFrames == 0) {
 			return 0;
@@ -0,0 +1,165 @@
+package com.limelight.discovery;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.limelight.nvstream.http.ComputerDetails;
+import com.limelight.settings.SettingsManager;
+
+/**
+ * The hosts that have answered us before, saved in <code>hosts.json</code> so they can
+ * be shown at startup before discovery has found anything.
+ * <br>A host is only saved once a probe of its serverinfo succeeds, so addresses that
+ * were mistyped or never reached don't pile up.
+ */
+public class HostDirectory {
+	/**
+	 * A host and what it last reported about itself
+	 */
+	public static class KnownHost implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public String address;
+		public String name;
+		public String uuid;
+		public String macAddress;
+		public String pairState;
+		public int runningGameId;
+
+		// When the host last answered serverinfo, in ms since the epoch
+		public long lastSeen;
+
+		/**
+		 * Gets the name to show the user for this host
+		 * @return the host's name or its address if we don't know the name yet
+		 */
+		public String getDisplayName() {
+			return name != null ? name : address;
+		}
+	}
+
+	private static class HostList implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private ArrayList<KnownHost> hosts = new ArrayList<KnownHost>();
+	}
+
+	private static HostDirectory directory;
+
+	private HostList hostList;
+
+	private HostDirectory() {
+		File hostsFile = SettingsManager.getInstance().getHostsFile();
+		if (hostsFile != null) {
+			hostList = (HostList) SettingsManager.readSettings(hostsFile, HostList.class);
+		}
+		if (hostList == null || hostList.hosts == null) {
+			hostList = new HostList();
+		}
+
+		// Older versions saved hosts before they had ever answered
+		for (int i = hostList.hosts.size() - 1; i >= 0; i--) {
+			if (hostList.hosts.get(i).lastSeen == 0) {
+				hostList.hosts.remove(i);
+			}
+		}
+	}
+
+	/**
+	 * Gets the host directory, loading it from disk the first time
+	 * @return the host directory
+	 */
+	public static synchronized HostDirectory getInstance() {
+		if (directory == null) {
+			directory = new HostDirectory();
+		}
+		return directory;
+	}
+
+	/**
+	 * Gets every known host
+	 * @return a copy of the known hosts
+	 */
+	public synchronized List<KnownHost> getHosts() {
+		return new ArrayList<KnownHost>(hostList.hosts);
+	}
+
+	/**
+	 * Gets the known host at an address, or a new one that isn't saved until
+	 * {@link #updateHost(KnownHost, ComputerDetails)} records a successful probe of it
+	 * @param address the host's address
+	 * @param name the host's name or null if it isn't known
+	 * @return the host at this address
+	 */
+	public synchronized KnownHost getHost(String address, String name) {
+		// An address isn't a name, so don't let it replace one we know
+		if (name != null && name.equalsIgnoreCase(address)) {
+			name = null;
+		}
+
+		KnownHost host = findByAddress(address);
+		if (host == null) {
+			host = new KnownHost();
+			host.address = address;
+			host.name = name;
+		}
+		else if (name != null && !name.equals(host.name)) {
+			host.name = name;
+			save();
+		}
+		return host;
+	}
+
+	/**
+	 * Records the details a host reported in its serverinfo, saving the host if it is
+	 * new. If the same host was known under another address, that entry is dropped in
+	 * favor of this one.
+	 * @param host the host that was probed
+	 * @param details the host's details
+	 */
+	public synchronized void updateHost(KnownHost host, ComputerDetails details) {
+		host.name = details.name;
+		host.uuid = details.uuid != null ? details.uuid.toString() : null;
+		host.macAddress = details.macAddress;
+		host.pairState = details.pairState != null ? details.pairState.name() : null;
+		host.runningGameId = details.runningGameId;
+		host.lastSeen = System.currentTimeMillis();
+
+		if (!hostList.hosts.contains(host)) {
+			// Replace anything saved at this address since the host was looked up
+			KnownHost old = findByAddress(host.address);
+			if (old != null) {
+				hostList.hosts.remove(old);
+			}
+			hostList.hosts.add(host);
+		}
+
+		if (host.uuid != null) {
+			for (int i = hostList.hosts.size() - 1; i >= 0; i--) {
+				KnownHost other = hostList.hosts.get(i);
+				if (other != host && host.uuid.equals(other.uuid)) {
+					hostList.hosts.remove(i);
+				}
+			}
+		}
+		save();
+	}
+
+	private KnownHost findByAddress(String address) {
+		for (KnownHost host : hostList.hosts) {
+			if (host.address.equalsIgnoreCase(address)) {
+				return host;
+			}
+		}
+		return null;
+	}
+
+	private void save() {
+		File hostsFile = SettingsManager.getInstance().getHostsFile();
+		if (hostsFile != null) {
+			SettingsManager.writeSettings(hostsFile, hostList);
+		}
+	}
+}
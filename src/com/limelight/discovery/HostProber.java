@@ -0,0 +1,103 @@
+package com.limelight.discovery;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.limelight.LimeLog;
+import com.limelight.binding.http.NvHttpProvider;
+import com.limelight.discovery.HostDirectory.KnownHost;
+import com.limelight.nvstream.http.ComputerDetails;
+
+/**
+ * Checks whether known hosts are reachable by requesting their serverinfo, several
+ * hosts at a time, and reports each result as soon as it arrives.
+ */
+public class HostProber {
+	public static final int MAX_CONCURRENT_PROBES = 4;
+
+	/**
+	 * Receives probe results. Called on a probe thread.
+	 */
+	public interface ProbeListener {
+		public void hostProbed(KnownHost host, boolean reachable);
+	}
+
+	private final String uniqueId;
+	private final ProbeListener listener;
+	private final ExecutorService pool;
+
+	/**
+	 * Creates a prober
+	 * @param uniqueId this client's unique ID
+	 * @param listener where results are reported
+	 */
+	public HostProber(String uniqueId, ProbeListener listener) {
+		this.uniqueId = uniqueId;
+		this.listener = listener;
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_CONCURRENT_PROBES, MAX_CONCURRENT_PROBES,
+				5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r);
+				t.setName("Discovery - Probe "+threadCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		// Don't keep idle probe threads around once everything has been probed
+		executor.allowCoreThreadTimeOut(true);
+		this.pool = executor;
+	}
+
+	/**
+	 * Probes a host in the background
+	 * @param host the host to probe
+	 */
+	public void probe(final KnownHost host) {
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				long startTime = System.nanoTime();
+				boolean reachable;
+				try {
+					ComputerDetails details = NvHttpProvider.getConnection(
+							InetAddress.getByName(host.address), uniqueId).getComputerDetails();
+					HostDirectory.getInstance().updateHost(host, details);
+					reachable = true;
+				} catch (Exception e) {
+					reachable = false;
+				}
+
+				LimeLog.info("Probed "+host.address+" in "+(System.nanoTime() - startTime) / 1000000+" ms: "+
+						(reachable ? "online" : "offline"));
+				listener.hostProbed(host, reachable);
+			}
+		});
+	}
+
+	/**
+	 * Probes each of the given hosts in the background
+	 * @param hosts the hosts to probe
+	 */
+	public void probeAll(List<KnownHost> hosts) {
+		for (KnownHost host : hosts) {
+			probe(host);
+		}
+	}
+
+	/**
+	 * Stops probing. Probes that are already running finish in the background.
+	 */
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
@@ -0,0 +1,245 @@
+package com.limelight.discovery;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.http.NvHTTP;
+
+/**
+ * Finds hosts by trying to connect to the GameStream HTTP port on every address in
+ * a set of IPv4 ranges, for networks where mDNS doesn't reach the host.
+ * <br>Connects are non-blocking and driven by one selector, so a /24 takes about
+ * as long as one connect timeout. Hosts that accept are reported by address only,
+ * since nothing is known about them until they are probed.
+ */
+public class SubnetScanner {
+	public static final int MAX_CONCURRENT_CONNECTS = 256;
+	public static final int CONNECT_TIMEOUT_MS = 400;
+
+	// Don't let a typo turn into a sweep of a huge network
+	public static final int MIN_PREFIX_LENGTH = 16;
+
+	/**
+	 * Receives scan results. Called on the scan thread.
+	 */
+	public interface ScanListener {
+		public void hostFound(InetAddress address);
+		public void scanFailed(Exception e);
+	}
+
+	private final ScanListener listener;
+	private final int port;
+	private Thread scanThread;
+
+	/**
+	 * Creates a scanner that reports hosts to the given listener
+	 * @param listener the listener to report found hosts to
+	 */
+	public SubnetScanner(ScanListener listener) {
+		this(listener, NvHTTP.HTTP_PORT);
+	}
+
+	/**
+	 * Creates a scanner that looks for hosts listening on the given port
+	 * @param listener the listener to report found hosts to
+	 * @param port the TCP port to connect to
+	 */
+	public SubnetScanner(ScanListener listener, int port) {
+		this.listener = listener;
+		this.port = port;
+	}
+
+	/**
+	 * Scans the given ranges in the background
+	 * @param ranges the ranges to scan, like "192.168.1.0/24, 10.0.2.0/24"
+	 */
+	public synchronized void startScan(final String ranges) {
+		stopScan();
+		scanThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					scan(ranges);
+				} catch (Exception e) {
+					listener.scanFailed(e);
+				}
+			}
+		};
+		scanThread.setName("Discovery - Subnet Scan");
+		scanThread.setDaemon(true);
+		scanThread.start();
+	}
+
+	/**
+	 * Stops a background scan if one is running
+	 */
+	public synchronized void stopScan() {
+		if (scanThread != null) {
+			scanThread.interrupt();
+			scanThread = null;
+		}
+	}
+
+	/**
+	 * Scans the given ranges, reporting each host to the listener as it is found
+	 * @param ranges the ranges to scan, like "192.168.1.0/24, 10.0.2.0/24"
+	 * @return the addresses of the hosts that were found
+	 * @throws IOException if the selector can't be opened
+	 * @throws IllegalArgumentException if a range can't be parsed
+	 */
+	public List<InetAddress> scan(String ranges) throws IOException {
+		List<InetAddress> targets = parseRanges(ranges);
+		List<InetAddress> found = new ArrayList<InetAddress>();
+		long startTime = System.nanoTime();
+		int next = 0;
+
+		Selector selector = Selector.open();
+		try {
+			while ((next < targets.size() || !selector.keys().isEmpty()) && !Thread.currentThread().isInterrupted()) {
+				// Keep the connect pool full
+				while (next < targets.size() && selector.keys().size() < MAX_CONCURRENT_CONNECTS) {
+					startConnect(selector, targets.get(next++), found);
+				}
+
+				selector.select(CONNECT_TIMEOUT_MS / 4);
+
+				Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+				while (iter.hasNext()) {
+					SelectionKey key = iter.next();
+					iter.remove();
+
+					SocketChannel channel = (SocketChannel) key.channel();
+					InetAddress address = ((Attempt) key.attachment()).address;
+					try {
+						if (channel.finishConnect()) {
+							hostFound(address, found);
+						}
+						else {
+							continue;
+						}
+					} catch (IOException e) {
+						// Refused or unreachable
+					}
+					close(key);
+				}
+
+				// Give up on addresses that haven't answered in time
+				long now = System.nanoTime();
+				for (SelectionKey key : selector.keys()) {
+					if (now > ((Attempt) key.attachment()).deadline) {
+						close(key);
+					}
+				}
+			}
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			selector.close();
+		}
+
+		LimeLog.info("Scanned "+next+" addresses in "+(System.nanoTime() - startTime) / 1000000+" ms, found "+found.size()+" hosts");
+		return found;
+	}
+
+	private static class Attempt {
+		public final InetAddress address;
+		public final long deadline;
+
+		public Attempt(InetAddress address, long deadline) {
+			this.address = address;
+			this.deadline = deadline;
+		}
+	}
+
+	private void startConnect(Selector selector, InetAddress address, List<InetAddress> found) {
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			if (channel.connect(new InetSocketAddress(address, port))) {
+				hostFound(address, found);
+				channel.close();
+			}
+			else {
+				channel.register(selector, SelectionKey.OP_CONNECT,
+						new Attempt(address, System.nanoTime() + CONNECT_TIMEOUT_MS * 1000000L));
+			}
+		} catch (IOException e) {
+			// No route to this address
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e1) {}
+			}
+		}
+	}
+
+	private static void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {}
+	}
+
+	private void hostFound(InetAddress address, List<InetAddress> found) {
+		found.add(address);
+		listener.hostFound(address);
+	}
+
+	/**
+	 * Parses a list of IPv4 ranges in CIDR notation separated by commas or spaces.
+	 * <br>The network and broadcast addresses of each range are skipped.
+	 * @param ranges the ranges to parse, like "192.168.1.0/24, 10.0.2.7"
+	 * @return every address to scan
+	 * @throws IllegalArgumentException if a range can't be parsed or is too large
+	 */
+	public static List<InetAddress> parseRanges(String ranges) {
+		List<InetAddress> addresses = new ArrayList<InetAddress>();
+		for (String range : ranges.trim().split("[,\\s]+")) {
+			if (range.isEmpty()) {
+				continue;
+			}
+
+			String[] parts = range.split("/");
+			int prefixLength;
+			byte[] base;
+			try {
+				prefixLength = parts.length > 1 ? Integer.parseInt(parts[1]) : 32;
+				base = InetAddress.getByName(parts[0]).getAddress();
+			} catch (NumberFormatException | UnknownHostException e) {
+				throw new IllegalArgumentException("Invalid range: "+range);
+			}
+			if (parts.length > 2 || base.length != 4 || prefixLength < MIN_PREFIX_LENGTH || prefixLength > 32) {
+				throw new IllegalArgumentException("Invalid range: "+range+" (expected an IPv4 range of /"+MIN_PREFIX_LENGTH+" or smaller)");
+			}
+
+			int mask = -1 << (32 - prefixLength);
+			int first = ((base[0] & 0xFF) << 24 | (base[1] & 0xFF) << 16 | (base[2] & 0xFF) << 8 | (base[3] & 0xFF)) & mask;
+			int last = first | ~mask;
+			if (prefixLength <= 30) {
+				first++;
+				last--;
+			}
+
+			for (long ip = first & 0xFFFFFFFFL; ip <= (last & 0xFFFFFFFFL); ip++) {
+				try {
+					addresses.add(InetAddress.getByAddress(new byte[] {
+							(byte)(ip >> 24), (byte)(ip >> 16), (byte)(ip >> 8), (byte)ip }));
+				} catch (UnknownHostException e) {
+					// Can't happen for a 4 byte address
+				}
+			}
+		}
+		return addresses;
+	}
+}
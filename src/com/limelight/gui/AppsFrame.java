@@ -2,10 +2,12 @@ package com.limelight.gui;
 
 import com.limelight.LimeLog;
 import com.limelight.Limelight;
-import com.limelight.binding.PlatformBinding;
+import com.limelight.binding.SessionPrewarmer;
+import com.limelight.binding.http.NvHttpProvider;
 import com.limelight.nvstream.http.GfeHttpResponseException;
 import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
+import com.limelight.settings.AppListCache;
 import com.limelight.settings.PreferencesManager;
 
 import org.xmlpull.v1.XmlPullParserException;
@@ -17,6 +19,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -39,12 +43,47 @@ public class AppsFrame extends JFrame {
     private String host;
 
     private Map<String, NvApp> apps;
+    private SessionPrewarmer prewarmer;
 
     // UI Elements
     private JComboBox<String> appSelector;
     private JButton launchButton;
     private JButton quitButton;
     
+    /*
+     * Fills the app selector with the given apps, keeping the selection if the app is still there
+     */
+    private void showAppList(LinkedList<NvApp> appList) {
+        // Sort the list alphabetically by app name
+        Collections.sort(appList, new Comparator<NvApp>() {
+			@Override
+			public int compare(NvApp left, NvApp right) {
+				return left.getAppName().compareTo(right.getAppName());
+			}
+        });
+        
+        Object selected = apps.isEmpty() ? null : appSelector.getSelectedItem();
+        apps.clear();
+        appSelector.removeAllItems();
+        
+        for (NvApp app : appList) {
+            apps.put(app.getAppName(), app);
+            appSelector.addItem(app.getAppName());
+        }
+        
+        if (selected != null && apps.containsKey(selected)) {
+            appSelector.setSelectedItem(selected);
+        }
+
+        quitButton.setEnabled(false);
+        for (NvApp app : appList) {
+        	if (app.getIsRunning()) {
+                appSelector.setSelectedItem(app.getAppName());
+                quitButton.setEnabled(true);
+        	}
+        }
+    }
+    
     private void fetchAppList() {
     	SwingWorker<LinkedList<NvApp>, Void> fetchBg = new SwingWorker<LinkedList<NvApp>, Void>() {
             @Override protected LinkedList<NvApp> doInBackground() throws Exception {
@@ -58,28 +97,8 @@ public class AppsFrame extends JFrame {
                     	return;
                     }
                     
-                    // Sort the fetched list alphabetically by app name
-                    Collections.sort(fetched, new Comparator<NvApp>() {
-    					@Override
-    					public int compare(NvApp left, NvApp right) {
-    						return left.getAppName().compareTo(right.getAppName());
-    					}
-                    });
-                    
-                    appSelector.removeAllItems();
-                    
-                    for (NvApp app : fetched) {
-                        apps.put(app.getAppName(), app);
-                        appSelector.addItem(app.getAppName());
-                    }
-
-                    quitButton.setEnabled(false);
-                    for (NvApp app : fetched) {
-                    	if (app.getIsRunning()) {
-                            appSelector.setSelectedItem(app.getAppName());
-                            quitButton.setEnabled(true);
-                    	}
-                    }
+                    cacheAppList(new LinkedList<NvApp>(fetched));
+                    showAppList(fetched);
                 } catch (InterruptedException e) {
                     LimeLog.warning("Failed to get list of apps; interrupted by " + e);
                 } catch (ExecutionException e) {
@@ -105,9 +124,8 @@ public class AppsFrame extends JFrame {
      */
     public void build() {
         try {
-			this.httpConnection = new NvHTTP(InetAddress.getByName(host),
-					PreferencesManager.getPreferences().getUniqueId(),
-					PlatformBinding.getDeviceName(), PlatformBinding.getCryptoProvider());
+			this.httpConnection = NvHttpProvider.getConnection(InetAddress.getByName(host),
+					PreferencesManager.getPreferences().getUniqueId());
 		} catch (UnknownHostException e) {
 			JOptionPane.showMessageDialog(null, "Unable to resolve machine address",
 					"Moonlight", JOptionPane.ERROR_MESSAGE);
@@ -134,9 +152,6 @@ public class AppsFrame extends JFrame {
             }
         });
         
-        // Asynchronously fetch app list
-        fetchAppList();
-
         launchButton = new JButton("Launch");
         launchButton.addActionListener(new ActionListener() {
             @Override public void actionPerformed(ActionEvent e) {
@@ -159,6 +174,24 @@ public class AppsFrame extends JFrame {
         });
         quitButton.setEnabled(false);
         
+        // Show the apps we saw last time right away, then refresh them in the background.
+        // The cache doesn't know what is running, so Quit stays off until the host answers.
+        LinkedList<NvApp> cachedApps = AppListCache.getAppList(host);
+        if (cachedApps != null && !cachedApps.isEmpty()) {
+            showAppList(cachedApps);
+        }
+        fetchAppList();
+        
+        // Get the slow parts of starting a stream out of the way while the user picks an app
+        prewarmer = new SessionPrewarmer(host, PreferencesManager.getPreferences().getUniqueId());
+        prewarmer.start();
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                prewarmer.discard();
+            }
+        });
+        
         getRootPane().setDefaultButton(launchButton);
 
         Box appSelectorBox = Box.createHorizontalBox();
@@ -192,7 +225,11 @@ public class AppsFrame extends JFrame {
     private LinkedList<NvApp> fetchApps() {
         // List out the games that are installed
         try {
-            return httpConnection.getAppList();
+            long startTime = System.nanoTime();
+            LinkedList<NvApp> appList = httpConnection.getAppList();
+            LimeLog.info("Fetched "+appList.size()+" apps from "+host+" in "+
+                    (System.nanoTime() - startTime) / 1000000+" ms");
+            return appList;
         } catch (GfeHttpResponseException e) {
         	if (e.getErrorCode() == 401) {
     			Limelight.displayUiMessage(null, "Not paired with computer",
@@ -212,9 +249,27 @@ public class AppsFrame extends JFrame {
         return null;
     }
 
+    /*
+     * Saves the app list under the host's unique ID, which takes another request to the host
+     */
+    private void cacheAppList(final LinkedList<NvApp> appList) {
+        Thread cacheThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    AppListCache.putAppList(host, httpConnection.getComputerDetails().uuid, appList);
+                } catch (Exception e) {
+                    LimeLog.warning("Unable to cache the app list for "+host+": "+e.getMessage());
+                }
+            }
+        };
+        cacheThread.setName("Apps - Cache");
+        cacheThread.start();
+    }
+
     private void launchApp(String appName) {
         this.setVisible(false);
-        Limelight.createInstance(host, appName);
+        Limelight.createInstance(host, appName, prewarmer);
     }
     
     private void quitApp() {
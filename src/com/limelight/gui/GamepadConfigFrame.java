@@ -308,14 +308,14 @@ public class GamepadConfigFrame extends JFrame {
 
 		}
 
-		public void handleButton(Device device, int buttonId, boolean pressed) {
+		public void handleButton(Device device, int buttonId, boolean pressed, long timestamp) {
 			if (pressed) {
 				newMapping = new SourceComponent(SourceComponent.Type.BUTTON, buttonId, null);
 			}
 		}
 
 		public void handleAxis(Device device, int axisId, float newValue,
-				float lastValue) {
+				float lastValue, long timestamp) {
 			if (newValue > 0.75) {
 				newMapping = new SourceComponent(SourceComponent.Type.AXIS, axisId, Direction.POSITIVE);
 			} else if (newValue < -0.75) {
@@ -331,6 +331,10 @@ public class GamepadConfigFrame extends JFrame {
 		public void handleDeviceRemoved(Device device) {
 		}
 
+		@Override
+		public void handlePollComplete() {
+		}
+
 	}
 
 	private static class GamepadCheckBox extends JCheckBox {
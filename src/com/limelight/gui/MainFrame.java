@@ -3,9 +3,12 @@ package com.limelight.gui;
 import java.awt.BorderLayout;
 import java.awt.Container;
 import java.awt.Dimension;
+import java.awt.Component;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -20,10 +23,15 @@ import javax.swing.JTextField;
 
 import com.limelight.LimeLog;
 import com.limelight.Limelight;
+import com.limelight.discovery.HostDirectory;
+import com.limelight.discovery.HostDirectory.KnownHost;
+import com.limelight.discovery.HostProber;
+import com.limelight.discovery.SubnetScanner;
 import com.limelight.nvstream.mdns.MdnsComputer;
 import com.limelight.nvstream.mdns.MdnsDiscoveryAgent;
 import com.limelight.nvstream.mdns.MdnsDiscoveryListener;
 import com.limelight.settings.PreferencesManager;
+import com.limelight.stats.StartupProfiler;
 import com.limelight.settings.PreferencesManager.Preferences;
 
 import javax.swing.*;
@@ -33,6 +41,8 @@ import java.awt.event.ItemListener;
 import java.awt.event.KeyEvent;
 import java.net.InetAddress;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * The main frame of Moonlight that allows the user to specify the host and begin the stream.
@@ -47,8 +57,13 @@ public class MainFrame {
 	private JFrame limeFrame;
 	private JComboBox<String> mdnsHostList;
 
-    private HashMap<String, InetAddress> mdnsHosts;
+    // Host addresses and whether the last probe reached them, by the name shown in the list
+    private HashMap<String, String> mdnsHosts;
+    private HashMap<String, Boolean> hostReachable;
     private MdnsDiscoveryAgent mdnsAgent;
+    private HostProber prober;
+    private SubnetScanner scanner;
+    private boolean updatingHostList;
 
 	/**
 	 * Gets the actual JFrame this class creates
@@ -100,6 +115,7 @@ public class MainFrame {
 					prefs.setHost(host);
 					PreferencesManager.writePreferences(prefs);
 				}
+				prober.probe(HostDirectory.getInstance().getHost(host, null));
 				// Limelight.createInstance(host);
 				showApps();
 			}
@@ -156,17 +172,66 @@ public class MainFrame {
         pair.addActionListener(createPairButtonListener());
         pair.setToolTipText("Send pair request to GeForce PC");
 
-        mdnsHosts = new HashMap<String, InetAddress>();
+        mdnsHosts = new HashMap<String, String>();
+        hostReachable = new HashMap<String, Boolean>();
         mdnsHostList = new JComboBox<String>();
         mdnsHostList.addItem("Choose a local PC...");
+        mdnsHostList.setRenderer(new DefaultListCellRenderer() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                    boolean isSelected, boolean cellHasFocus) {
+                if (Boolean.FALSE.equals(hostReachable.get(value))) {
+                    value = value + " (offline)";
+                }
+                return super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            }
+        });
+
+        // Show the hosts we already know about right away and check which are up in the background
+        prober = new HostProber(prefs.getUniqueId(), new HostProber.ProbeListener() {
+            @Override
+            public void hostProbed(final KnownHost host, final boolean reachable) {
+                if (!reachable && host.lastSeen == 0) {
+                    // Never answered, so it isn't worth listing
+                    return;
+                }
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        showHost(host.getDisplayName(), host.address, reachable);
+                    }
+                });
+            }
+        });
+        StartupProfiler.getInstance().begin("Known hosts");
+        List<KnownHost> knownHosts = HostDirectory.getInstance().getHosts();
+        for (KnownHost host : knownHosts) {
+            showHost(host.getDisplayName(), host.address, null);
+        }
+        prober.probeAll(knownHosts);
+        StartupProfiler.getInstance().end("Known hosts");
+        limeFrame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                prober.shutdown();
+                if (scanner != null) {
+                    scanner.stopScan();
+                }
+            }
+        });
         
-        mdnsAgent = new MdnsDiscoveryAgent(new MdnsDiscoveryListener() {
+        MdnsDiscoveryListener discoveryListener = new MdnsDiscoveryListener() {
 			@Override
 			public void notifyComputerAdded(MdnsComputer computer) {
-                if (!mdnsHosts.containsKey(computer.getName())) {
-                    mdnsHosts.put(computer.getName(), computer.getAddress());
-                    mdnsHostList.addItem(computer.getName());
-                }
+				final String name = computer.getName();
+				final String address = computer.getAddress().getHostAddress();
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						showHost(name, address, true);
+					}
+				});
+				prober.probe(HostDirectory.getInstance().getHost(address, name));
 			}
 
 			@Override
@@ -181,14 +246,34 @@ public class MainFrame {
 				e.printStackTrace();
 			}
         	
-        });
+        };
+        StartupProfiler.getInstance().begin("mDNS discovery start");
+        mdnsAgent = new MdnsDiscoveryAgent(discoveryListener);
         mdnsAgent.startDiscovery(1000);
+        StartupProfiler.getInstance().end("mDNS discovery start");
+
+        // mDNS doesn't cross subnets, so look for hosts on any other networks the user listed
+        if (prefs.getScanRanges() != null) {
+            scanner = new SubnetScanner(new SubnetScanner.ScanListener() {
+                @Override
+                public void hostFound(InetAddress address) {
+                    // All we have is an address, so it is listed once a probe gets its name
+                    prober.probe(HostDirectory.getInstance().getHost(address.getHostAddress(), null));
+                }
+
+                @Override
+                public void scanFailed(Exception e) {
+                    LimeLog.warning("Subnet scan failed: "+e.getMessage());
+                }
+            });
+            scanner.startScan(prefs.getScanRanges());
+        }
 
         // Propagate selections from mDNS to the hosts field
         mdnsHostList.addItemListener(new ItemListener() {
             public void itemStateChanged(ItemEvent e) {
-                if (e.getStateChange() == ItemEvent.SELECTED && mdnsHostList.getSelectedIndex() != 0) {
-                    hostField.setText((String) mdnsHosts.get(mdnsHostList.getSelectedItem()).getHostAddress());
+                if (e.getStateChange() == ItemEvent.SELECTED && mdnsHostList.getSelectedIndex() != 0 && !updatingHostList) {
+                    hostField.setText(mdnsHosts.get(mdnsHostList.getSelectedItem()));
                 }
             }
         });
@@ -238,6 +323,55 @@ public class MainFrame {
         limeFrame.setVisible(true);
     }
 
+    /*
+     * Adds a host to the list or updates the one already shown for its address. Must be called on the EDT.
+     */
+    private void showHost(String name, String address, Boolean reachable) {
+        for (Map.Entry<String, String> entry : mdnsHosts.entrySet()) {
+            if (entry.getValue().equals(address) && !entry.getKey().equals(name)) {
+                // The host's name changed, or we only knew its address before. The new name
+                // takes the old one's place, and keeps the selection if it had it.
+                String oldName = entry.getKey();
+                boolean selected = oldName.equals(mdnsHostList.getSelectedItem());
+                mdnsHosts.remove(oldName);
+                hostReachable.remove(oldName);
+
+                updatingHostList = true;
+                try {
+                    if (!mdnsHosts.containsKey(name)) {
+                        for (int i = 0; i < mdnsHostList.getItemCount(); i++) {
+                            if (oldName.equals(mdnsHostList.getItemAt(i))) {
+                                mdnsHostList.insertItemAt(name, i);
+                                break;
+                            }
+                        }
+                        mdnsHosts.put(name, address);
+                    }
+                    if (selected) {
+                        mdnsHostList.setSelectedItem(name);
+                    }
+                    mdnsHostList.removeItem(oldName);
+                } finally {
+                    updatingHostList = false;
+                }
+                break;
+            }
+        }
+
+        if (!mdnsHosts.containsKey(name)) {
+            mdnsHosts.put(name, address);
+            mdnsHostList.addItem(name);
+        }
+        else {
+            mdnsHosts.put(name, address);
+        }
+
+        if (reachable != null) {
+            hostReachable.put(name, reachable);
+        }
+        mdnsHostList.repaint();
+    }
+
     private void showApps() {
         String host = hostField.getText();
         AppsFrame appsFrame = new AppsFrame(host);
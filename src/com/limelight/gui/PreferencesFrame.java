@@ -1,5 +1,7 @@
  package com.limelight.gui;
 
+import com.limelight.LimeLog;
+import com.limelight.discovery.SubnetScanner;
 import com.limelight.settings.PreferencesManager;
 import com.limelight.settings.PreferencesManager.Preferences;
 import com.limelight.settings.PreferencesManager.Preferences.Resolution;
@@ -24,6 +26,7 @@ public class PreferencesFrame extends JFrame {
 	private JLabel bitrateLabel;
 	private JSlider bitrate;
 	private JCheckBox fullscreen, allowResolutionChange, keepAspectRatio, localAudio;
+	private JTextField scanRanges;
 	
 	/**
 	 * Construcs a new frame and loads the saved preferences.
@@ -31,7 +34,7 @@ public class PreferencesFrame extends JFrame {
 	 */
 	public PreferencesFrame() {
 		super("Preferences");
-		this.setSize(350, 340);
+		this.setSize(350, 400);
 		this.setResizable(false);
 	}
 	
@@ -86,6 +89,11 @@ public class PreferencesFrame extends JFrame {
 		localAudio = new JCheckBox("Play audio on host PC");
 		localAudio.setSelected(prefs.getLocalAudio());
 	
+		JLabel scanRangesLabel = new JLabel("Also search these networks for PCs:", JLabel.CENTER);
+		scanRanges = new JTextField(prefs.getScanRanges() != null ? prefs.getScanRanges() : "");
+		scanRanges.setMaximumSize(new Dimension(Integer.MAX_VALUE, 24));
+		scanRanges.setToolTipText("For networks mDNS can't reach, like 192.168.2.0/24, 10.0.5.0/24");
+	
 		Box resolutionBox = Box.createHorizontalBox();
 		resolutionBox.add(Box.createHorizontalGlue());
 		resolutionBox.add(resolution);
@@ -134,7 +142,21 @@ public class PreferencesFrame extends JFrame {
 		mainPanel.add(Box.createVerticalStrut(5));
 		mainPanel.add(keepAspectRatioBox);
 		mainPanel.add(Box.createVerticalStrut(5));
+		Box scanRangesLabelBox = Box.createHorizontalBox();
+		scanRangesLabelBox.add(Box.createHorizontalGlue());
+		scanRangesLabelBox.add(scanRangesLabel);
+		scanRangesLabelBox.add(Box.createHorizontalGlue());
+		
+		Box scanRangesBox = Box.createHorizontalBox();
+		scanRangesBox.add(Box.createHorizontalStrut(20));
+		scanRangesBox.add(scanRanges);
+		scanRangesBox.add(Box.createHorizontalStrut(20));
+		
 		mainPanel.add(localAudioBox);
+		mainPanel.add(Box.createVerticalStrut(10));
+		mainPanel.add(scanRangesLabelBox);
+		mainPanel.add(Box.createVerticalStrut(5));
+		mainPanel.add(scanRangesBox);
 		mainPanel.add(Box.createVerticalGlue());
 		
 		this.addWindowListener(new WindowAdapter() {
@@ -164,6 +186,13 @@ public class PreferencesFrame extends JFrame {
 		prefs.setBitrate(bitrate.getValue());
 		prefs.setResolution((Resolution)resolution.getSelectedItem());
 		prefs.setLocalAudio(localAudio.isSelected());
+		String ranges = scanRanges.getText().trim();
+		try {
+			SubnetScanner.parseRanges(ranges);
+			prefs.setScanRanges(ranges.isEmpty() ? null : ranges);
+		} catch (IllegalArgumentException e) {
+			LimeLog.warning("Not saving network scan ranges: "+e.getMessage());
+		}
 		PreferencesManager.writePreferences(prefs);
 	}
 	
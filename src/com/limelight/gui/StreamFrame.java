@@ -3,8 +3,9 @@ package com.limelight.gui;
 import com.limelight.LimeLog;
 import com.limelight.Limelight;
 import com.limelight.input.KeyboardHandler;
+import com.limelight.input.InputDispatcher;
+import com.limelight.input.InputRecorder;
 import com.limelight.input.MouseHandler;
-import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.NvConnectionListener.Stage;
 import com.limelight.nvstream.StreamConfiguration;
 import com.limelight.settings.PreferencesManager.Preferences;
@@ -61,16 +62,16 @@ public class StreamFrame extends JFrame {
 
 	/**
 	 * Builds the components of this frame with the specified configurations.
-	 * @param conn the connection this frame belongs to
+	 * @param conn the dispatcher that input from this frame is sent through
 	 * @param streamConfig the configurations for this frame
 	 * @param fullscreen if the frame should be made fullscreen
 	 */
-	public void build(Limelight limelight, NvConnection conn, StreamConfiguration streamConfig, Preferences prefs) {
+	public void build(Limelight limelight, InputDispatcher conn, StreamConfiguration streamConfig, Preferences prefs) {
 		this.limelight = limelight;
 		this.userPreferences = prefs;
 		
 		keyboard = new KeyboardHandler(conn, this);
-		mouse = new MouseHandler(conn, this);
+		mouse = new MouseHandler(conn, this, prefs.getMouseTickMs(), prefs.getRawMouseDevice());
 
 		this.setBackground(Color.BLACK);
 		this.setFocusableWindowState(true);
@@ -306,6 +307,12 @@ public class StreamFrame extends JFrame {
 			public void windowClosing(WindowEvent e) {
 				close();
 			}
+
+			@Override
+			public void windowDeactivated(WindowEvent e) {
+				// We won't see keys being released while another window has focus
+				keyboard.releaseAllKeys();
+			}
 		};
 	}
 
@@ -317,6 +324,32 @@ public class StreamFrame extends JFrame {
 		renderingSurface.requestFocus();
 	}
 
+	/**
+	 * Records the keyboard and mouse events this frame's handlers receive from now on
+	 * @param recorder the recorder or null to stop recording
+	 */
+	public void setInputRecorder(InputRecorder recorder) {
+		keyboard.setRecorder(recorder);
+		mouse.getMotionCoalescer().setRecorder(recorder);
+	}
+
+	public KeyboardHandler getKeyboardHandler() {
+		return keyboard;
+	}
+
+	public MouseHandler getMouseHandler() {
+		return mouse;
+	}
+
+	/**
+	 * Sends any pending input and stops forwarding input to the host
+	 */
+	public void stopInput() {
+		keyboard.releaseAllKeys();
+		keyboard.logSummary();
+		mouse.stop();
+	}
+
 	/**
 	 * Stops the stream and destroys the frame
 	 */
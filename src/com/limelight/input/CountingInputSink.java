@@ -0,0 +1,60 @@
+package com.limelight.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts input packets by type instead of sending them anywhere
+ */
+public class CountingInputSink implements InputSink {
+	private final AtomicLong keyboardPackets = new AtomicLong();
+	private final AtomicLong mouseMovePackets = new AtomicLong();
+	private final AtomicLong mouseButtonPackets = new AtomicLong();
+	private final AtomicLong mouseScrollPackets = new AtomicLong();
+	private final AtomicLong controllerPackets = new AtomicLong();
+
+	@Override
+	public void sendKeyboardInput(short keyCode, byte keyDirection, byte modifiers) {
+		keyboardPackets.incrementAndGet();
+	}
+
+	@Override
+	public void sendMouseMove(short deltaX, short deltaY) {
+		mouseMovePackets.incrementAndGet();
+	}
+
+	@Override
+	public void sendMouseButtonDown(byte button) {
+		mouseButtonPackets.incrementAndGet();
+	}
+
+	@Override
+	public void sendMouseButtonUp(byte button) {
+		mouseButtonPackets.incrementAndGet();
+	}
+
+	@Override
+	public void sendMouseScroll(byte amount) {
+		mouseScrollPackets.incrementAndGet();
+	}
+
+	@Override
+	public void sendControllerInput(short controllerNumber, short buttonFlags, byte leftTrigger, byte rightTrigger,
+			short leftStickX, short leftStickY, short rightStickX, short rightStickY) {
+		controllerPackets.incrementAndGet();
+	}
+
+	/**
+	 * Gets the number of packets of every type
+	 * @return the total packet count
+	 */
+	public long getPacketCount() {
+		return keyboardPackets.get() + mouseMovePackets.get() + mouseButtonPackets.get() +
+				mouseScrollPackets.get() + controllerPackets.get();
+	}
+
+	@Override
+	public String toString() {
+		return getPacketCount()+" packets: "+keyboardPackets+" keyboard, "+mouseMovePackets+" mouse move, "+
+				mouseButtonPackets+" mouse button, "+mouseScrollPackets+" scroll, "+controllerPackets+" controller";
+	}
+}
@@ -1,8 +1,14 @@
 package com.limelight.input;
 
 public interface DeviceListener {
-	public void handleButton(Device device, int buttonId, boolean pressed);
-	public void handleAxis(Device device, int axisId, float newValue, float lastValue);
+	public void handleButton(Device device, int buttonId, boolean pressed, long timestamp);
+	public void handleAxis(Device device, int axisId, float newValue, float lastValue, long timestamp);
 	public void handleDeviceAdded(Device device);
 	public void handleDeviceRemoved(Device device);
+	
+	/**
+	 * Called after all events from one poll have been delivered, so listeners can
+	 * send state that was accumulated during the poll
+	 */
+	public void handlePollComplete();
 }
@@ -0,0 +1,277 @@
+package com.limelight.input;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.input.MouseButtonPacket;
+
+/**
+ * Reads raw relative mouse motion from a Linux evdev device (<code>/dev/input/eventN</code>).
+ * <br>Deltas come straight from the kernel, so they are not limited by the window size and
+ * don't depend on warping the cursor. Any file containing recorded <code>input_event</code>
+ * structs can be read the same way, in which case reading stops at the end of the file.
+ */
+public class EvdevMouseReader {
+	// From linux/input-event-codes.h
+	private static final int EV_SYN = 0x00;
+	private static final int EV_KEY = 0x01;
+	private static final int EV_REL = 0x02;
+	private static final int SYN_REPORT = 0;
+	private static final int REL_X = 0x00;
+	private static final int REL_Y = 0x01;
+	private static final int REL_WHEEL = 0x08;
+	private static final int BTN_LEFT = 0x110;
+	private static final int BTN_RIGHT = 0x111;
+	private static final int BTN_MIDDLE = 0x112;
+
+	private static final int EVENTS_PER_READ = 64;
+
+	private final File device;
+	private final int eventSize;
+	private final MouseMotionCoalescer sender;
+	private Thread readerThread;
+	private FileInputStream input;
+	private volatile boolean enabled = true;
+	private volatile boolean running;
+
+	private long eventsRead;
+	private long reportsSent;
+
+	/**
+	 * Creates a reader using the native <code>input_event</code> layout
+	 * @param device the evdev device node or a recording of one
+	 * @param sender where mouse events are sent
+	 */
+	public EvdevMouseReader(File device, MouseMotionCoalescer sender) {
+		this(device, getNativeEventSize(), sender);
+	}
+
+	/**
+	 * Creates a reader
+	 * @param device the evdev device node or a recording of one
+	 * @param eventSize the size of each <code>input_event</code> struct: 24 bytes on 64-bit kernels, 16 on 32-bit
+	 * @param sender where mouse events are sent
+	 */
+	public EvdevMouseReader(File device, int eventSize, MouseMotionCoalescer sender) {
+		this.device = device;
+		this.eventSize = eventSize;
+		this.sender = sender;
+	}
+
+	private static int getNativeEventSize() {
+		// struct timeval is two longs followed by type, code and value
+		return System.getProperty("os.arch", "").contains("64") ? 24 : 16;
+	}
+
+	/**
+	 * Finds the evdev node of the first mouse listed by the kernel
+	 * @return the device node or null if no mouse was found
+	 */
+	public static File findMouseDevice() {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader("/proc/bus/input/devices"));
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				// H: Handlers=mouse0 event3
+				if (!line.startsWith("H: Handlers=") || !line.contains("mouse")) {
+					continue;
+				}
+
+				for (String handler : line.substring("H: Handlers=".length()).split(" ")) {
+					if (handler.startsWith("event")) {
+						return new File("/dev/input/" + handler);
+					}
+				}
+			}
+		} catch (IOException e) {
+			LimeLog.warning("Unable to list input devices: "+e.getMessage());
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Opens the device and starts delivering events
+	 * @return true if the device was opened
+	 */
+	public boolean start() {
+		try {
+			input = new FileInputStream(device);
+		} catch (IOException e) {
+			LimeLog.warning("Unable to open "+device+" for raw mouse input: "+e.getMessage());
+			return false;
+		}
+
+		LimeLog.info("Reading raw mouse input from "+device);
+		running = true;
+		readerThread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					readEvents(input.getChannel());
+				} catch (IOException e) {
+					if (!isInterrupted()) {
+						LimeLog.warning("Raw mouse input failed: "+e.getMessage());
+					}
+				} finally {
+					// The device may have been unplugged or the recording ended,
+					// so let the mouse handler go back to AWT events
+					running = false;
+					try {
+						input.close();
+					} catch (IOException e) {}
+				}
+				LimeLog.info("Raw mouse input: "+eventsRead+" events read, "+reportsSent+" reports sent");
+			}
+		};
+		readerThread.setName("Input - Evdev Mouse");
+		readerThread.setPriority(Thread.MAX_PRIORITY - 1);
+		readerThread.start();
+		return true;
+	}
+
+	/**
+	 * Stops reading events
+	 */
+	public void stop() {
+		if (readerThread == null) {
+			return;
+		}
+
+		// Closing the stream unblocks the pending read
+		readerThread.interrupt();
+		try {
+			input.close();
+		} catch (IOException e) {}
+
+		try {
+			readerThread.join();
+		} catch (InterruptedException e) {}
+		readerThread = null;
+	}
+
+	/**
+	 * Gets whether events are still being read. This becomes false once the reader stops,
+	 * whether that's from <code>stop()</code>, a read error, the device going away or the
+	 * end of a recording.
+	 * @return true if the reader thread is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Sets whether events are forwarded. Events read while disabled are discarded.
+	 * @param enabled true to forward events
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	private void readEvents(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(eventSize * EVENTS_PER_READ).order(ByteOrder.nativeOrder());
+		int dx = 0, dy = 0;
+		long motionSince = 0;
+
+		for (;;) {
+			if (channel.read(buffer) < 0) {
+				// End of a recording
+				break;
+			}
+
+			buffer.flip();
+			while (buffer.remaining() >= eventSize) {
+				int base = buffer.position();
+				int type = buffer.getShort(base + eventSize - 8) & 0xFFFF;
+				int code = buffer.getShort(base + eventSize - 6) & 0xFFFF;
+				int value = buffer.getInt(base + eventSize - 4);
+				long timestamp = InputClock.fromWallClockMicros(getEventTimeUs(buffer, base));
+				buffer.position(base + eventSize);
+				eventsRead++;
+
+				if (!enabled) {
+					dx = dy = 0;
+					continue;
+				}
+
+				switch (type) {
+				case EV_REL:
+					if (dx == 0 && dy == 0) {
+						motionSince = timestamp;
+					}
+					if (code == REL_X) {
+						dx += value;
+					}
+					else if (code == REL_Y) {
+						dy += value;
+					}
+					else if (code == REL_WHEEL) {
+						sender.sendScroll((byte) value, timestamp);
+					}
+					break;
+				case EV_KEY:
+					byte button = getButton(code);
+					if (button != 0) {
+						// Value 2 is autorepeat which mice don't generate
+						if (value == 1) {
+							sender.sendButtonDown(button, timestamp);
+						}
+						else if (value == 0) {
+							sender.sendButtonUp(button, timestamp);
+						}
+					}
+					break;
+				case EV_SYN:
+					// All axes of one hardware report are sent together
+					if (code == SYN_REPORT && (dx != 0 || dy != 0)) {
+						sender.addMotion(dx, dy, motionSince);
+						reportsSent++;
+						dx = dy = 0;
+					}
+					break;
+				}
+			}
+			buffer.compact();
+		}
+	}
+
+	/*
+	 * Reads the struct timeval at the start of an input_event, which is two longs
+	 */
+	private long getEventTimeUs(ByteBuffer buffer, int base) {
+		if (eventSize == 24) {
+			return buffer.getLong(base) * 1000000 + buffer.getLong(base + 8);
+		}
+		else {
+			return (buffer.getInt(base) & 0xFFFFFFFFL) * 1000000 + buffer.getInt(base + 4);
+		}
+	}
+
+	private static byte getButton(int code) {
+		switch (code) {
+		case BTN_LEFT:
+			return MouseButtonPacket.BUTTON_LEFT;
+		case BTN_MIDDLE:
+			return MouseButtonPacket.BUTTON_MIDDLE;
+		case BTN_RIGHT:
+			return MouseButtonPacket.BUTTON_RIGHT;
+		default:
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.limelight.input;
+
+/**
+ * Converts input event timestamps from their source clocks into the
+ * <code>System.nanoTime()</code> domain so input latency can be traced end to end.
+ */
+public class InputClock {
+	// No event should take longer than this to be delivered
+	private static final long MAX_DELIVERY_DELAY_NS = 1000 * 1000000L;
+
+	private long minOffsetNs = Long.MAX_VALUE;
+
+	/**
+	 * Converts a wall clock timestamp such as <code>InputEvent.getWhen()</code>
+	 * @param wallTimeMs the time in milliseconds since the epoch
+	 * @return the time on the <code>System.nanoTime()</code> clock
+	 */
+	public static long fromWallClockMillis(long wallTimeMs) {
+		return fromWallClockMicros(wallTimeMs * 1000);
+	}
+
+	/**
+	 * Converts a wall clock timestamp such as an evdev event time
+	 * @param wallTimeUs the time in microseconds since the epoch
+	 * @return the time on the <code>System.nanoTime()</code> clock, never later than now
+	 */
+	public static long fromWallClockMicros(long wallTimeUs) {
+		long now = System.nanoTime();
+		long ageNs = (System.currentTimeMillis() * 1000 - wallTimeUs) * 1000;
+
+		// Events can't come from the future, but the wall clock has millisecond precision
+		return now - Math.max(0, ageNs);
+	}
+
+	/**
+	 * Converts a timestamp from a clock with an unknown epoch, like the one used by the
+	 * native gamepad library. The offset between the clocks is estimated as the smallest
+	 * difference seen between an event's timestamp and the time it was received, so
+	 * the result is exact up to the fastest delivery that was observed.
+	 * @param seconds the event time in seconds on the source clock
+	 * @param receiveTimeNs the time the event was received on the <code>System.nanoTime()</code> clock
+	 * @return the event time on the <code>System.nanoTime()</code> clock
+	 */
+	public long fromSourceClock(double seconds, long receiveTimeNs) {
+		long sourceNs = (long)(seconds * 1000000000.0);
+		long offset = receiveTimeNs - sourceNs;
+
+		// A large jump means the source clock was stepped, so start over
+		if (offset < minOffsetNs || offset - minOffsetNs > MAX_DELIVERY_DELAY_NS) {
+			minOffsetNs = offset;
+		}
+		return sourceNs + minOffsetNs;
+	}
+}
@@ -0,0 +1,195 @@
+package com.limelight.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.NvConnection;
+import com.limelight.stats.LatencyHistogram;
+
+/**
+ * Sends input events to the host and traces how long each took from its origin.
+ * <br>Events are passed straight to the sink on the caller's thread. The stream connection
+ * already queues input packets and encrypts and sends them on its own input thread, so
+ * sending never blocks the Swing event thread or gamepad polling.
+ * <br>The latency histograms stop when the connection accepts the event into that queue.
+ * They don't include the time until the packet is on the network.
+ */
+public class InputDispatcher {
+	private static final int MAX_CONTROLLERS = 4;
+
+	private final InputSink conn;
+	private volatile boolean stopped;
+
+	private final AtomicLong eventsSent = new AtomicLong();
+
+	private final LatencyHistogram keyboardLatency = new LatencyHistogram("Keyboard origin to send", 100, 1000);
+	private final LatencyHistogram mouseLatency = new LatencyHistogram("Mouse origin to send", 100, 1000);
+	private final LatencyHistogram[] controllerLatency = new LatencyHistogram[MAX_CONTROLLERS];
+
+	/**
+	 * Creates a dispatcher for the given connection
+	 * @param conn the connection that input is sent on
+	 */
+	public InputDispatcher(NvConnection conn) {
+		this(new NvConnectionInputSink(conn));
+	}
+
+	/**
+	 * Creates a dispatcher for the given sink
+	 * @param sink where input is sent
+	 */
+	public InputDispatcher(InputSink sink) {
+		this.conn = sink;
+
+		for (int i = 0; i < MAX_CONTROLLERS; i++) {
+			controllerLatency[i] = new LatencyHistogram("Controller "+i+" origin to send", 100, 1000);
+		}
+	}
+
+	/**
+	 * Stops sending input and logs the latency histograms. Events given to the
+	 * dispatcher after this are dropped since the connection is going away.
+	 */
+	public void stop() {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+
+		LimeLog.info(toString());
+		if (keyboardLatency.getCount() > 0) {
+			LimeLog.info(keyboardLatency.toString());
+		}
+		if (mouseLatency.getCount() > 0) {
+			LimeLog.info(mouseLatency.toString());
+		}
+		for (LatencyHistogram histogram : controllerLatency) {
+			if (histogram.getCount() > 0) {
+				LimeLog.info(histogram.toString());
+			}
+		}
+	}
+
+	public void sendKeyboardInput(short keyCode, byte keyDirection, byte modifiers) {
+		sendKeyboardInput(keyCode, keyDirection, modifiers, System.nanoTime());
+	}
+
+	/**
+	 * Sends a key event
+	 * @param keyCode the GFE key code
+	 * @param keyDirection <code>KeyboardPacket.KEY_DOWN</code> or <code>KEY_UP</code>
+	 * @param modifiers the modifier keys held
+	 * @param timestamp when the key event happened on the <code>System.nanoTime()</code> clock
+	 */
+	public void sendKeyboardInput(short keyCode, byte keyDirection, byte modifiers, long timestamp) {
+		if (stopped) {
+			return;
+		}
+		conn.sendKeyboardInput(keyCode, keyDirection, modifiers);
+		sent(keyboardLatency, timestamp);
+	}
+
+	public void sendMouseButtonDown(byte button) {
+		sendMouseButtonDown(button, System.nanoTime());
+	}
+
+	public void sendMouseButtonDown(byte button, long timestamp) {
+		if (stopped) {
+			return;
+		}
+		conn.sendMouseButtonDown(button);
+		sent(mouseLatency, timestamp);
+	}
+
+	public void sendMouseButtonUp(byte button) {
+		sendMouseButtonUp(button, System.nanoTime());
+	}
+
+	public void sendMouseButtonUp(byte button, long timestamp) {
+		if (stopped) {
+			return;
+		}
+		conn.sendMouseButtonUp(button);
+		sent(mouseLatency, timestamp);
+	}
+
+	public void sendMouseScroll(byte amount) {
+		sendMouseScroll(amount, System.nanoTime());
+	}
+
+	public void sendMouseScroll(byte amount, long timestamp) {
+		if (stopped) {
+			return;
+		}
+		conn.sendMouseScroll(amount);
+		sent(mouseLatency, timestamp);
+	}
+
+	public void sendMouseMove(short deltaX, short deltaY) {
+		sendMouseMove(deltaX, deltaY, System.nanoTime());
+	}
+
+	public void sendMouseMove(short deltaX, short deltaY, long timestamp) {
+		if (stopped) {
+			return;
+		}
+		conn.sendMouseMove(deltaX, deltaY);
+		sent(mouseLatency, timestamp);
+	}
+
+	public void sendControllerInput(short controllerNumber, short buttonFlags, byte leftTrigger, byte rightTrigger,
+			short leftStickX, short leftStickY, short rightStickX, short rightStickY) {
+		sendControllerInput(controllerNumber, buttonFlags, leftTrigger, rightTrigger,
+				leftStickX, leftStickY, rightStickX, rightStickY, System.nanoTime());
+	}
+
+	/**
+	 * Sends a controller state snapshot
+	 * @param timestamp when the oldest input in this snapshot happened on the <code>System.nanoTime()</code> clock
+	 */
+	public void sendControllerInput(short controllerNumber, short buttonFlags, byte leftTrigger, byte rightTrigger,
+			short leftStickX, short leftStickY, short rightStickX, short rightStickY, long timestamp) {
+		if (stopped) {
+			return;
+		}
+		conn.sendControllerInput(controllerNumber, buttonFlags, leftTrigger, rightTrigger,
+				leftStickX, leftStickY, rightStickX, rightStickY);
+		sent(controllerLatency[Math.abs(controllerNumber) % MAX_CONTROLLERS], timestamp);
+	}
+
+	// Called once the connection has queued the event, which is as far as we can see it
+	private void sent(LatencyHistogram histogram, long timestamp) {
+		histogram.recordNanos(System.nanoTime() - timestamp);
+		eventsSent.incrementAndGet();
+	}
+
+	/**
+	 * Gets the histogram of time from a key event happening to the connection queueing it
+	 * @return the keyboard latency histogram
+	 */
+	public LatencyHistogram getKeyboardLatency() {
+		return keyboardLatency;
+	}
+
+	/**
+	 * Gets the histogram of time from a mouse event happening to the connection queueing it
+	 * @return the mouse latency histogram
+	 */
+	public LatencyHistogram getMouseLatency() {
+		return mouseLatency;
+	}
+
+	/**
+	 * Gets the histogram of time from a controller input happening to the connection queueing it
+	 * @param controllerNumber the controller number
+	 * @return the latency histogram for that controller
+	 */
+	public LatencyHistogram getControllerLatency(int controllerNumber) {
+		return controllerLatency[controllerNumber];
+	}
+
+	@Override
+	public String toString() {
+		return "Input dispatcher: "+eventsSent+" events sent";
+	}
+}
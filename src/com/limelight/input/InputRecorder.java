@@ -0,0 +1,202 @@
+package com.limelight.input;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import com.limelight.LimeLog;
+
+/**
+ * Records the raw input events given to the keyboard, mouse and gamepad handlers to a file
+ * so they can be replayed through the handlers later by <code>InputReplayer</code>.
+ * <br>Events are recorded before auto-repeat suppression, motion coalescing and gamepad
+ * state batching, so a replay exercises all of that again.
+ * <br>The file starts with a magic number and version. Each event is then a type byte,
+ * the microseconds since the previous event as an int, and the event's fields.
+ */
+public class InputRecorder {
+	static final int MAGIC = 0x4C494E50; // "LINP"
+	static final int VERSION = 2;
+
+	static final int TYPE_KEY_DOWN = 0;
+	static final int TYPE_KEY_UP = 1;
+	static final int TYPE_MOUSE_MOVE = 2;
+	static final int TYPE_MOUSE_BUTTON_DOWN = 3;
+	static final int TYPE_MOUSE_BUTTON_UP = 4;
+	static final int TYPE_MOUSE_SCROLL = 5;
+	static final int TYPE_GAMEPAD_ADDED = 6;
+	static final int TYPE_GAMEPAD_REMOVED = 7;
+	static final int TYPE_GAMEPAD_BUTTON = 8;
+	static final int TYPE_GAMEPAD_AXIS = 9;
+	static final int TYPE_GAMEPAD_POLL_COMPLETE = 10;
+
+	private final File file;
+	private DataOutputStream out;
+	private long lastTimestamp;
+	private long eventsRecorded;
+
+	/**
+	 * Creates a recorder and writes the file header
+	 * @param file the file to record to, which is overwritten
+	 * @throws IOException if the file can't be written
+	 */
+	public InputRecorder(File file) throws IOException {
+		this.file = file;
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		out.writeInt(MAGIC);
+		out.writeByte(VERSION);
+		lastTimestamp = System.nanoTime();
+	}
+
+	/**
+	 * Records a key event as the keyboard handler received it
+	 * @param keyCode the Java key code
+	 * @param modifiersEx the extended modifiers of the key event
+	 * @param down true for a key press, false for a release
+	 * @param timestamp when the key event happened on the <code>System.nanoTime()</code> clock
+	 */
+	public synchronized void recordKey(int keyCode, int modifiersEx, boolean down, long timestamp) {
+		if (startRecord(down ? TYPE_KEY_DOWN : TYPE_KEY_UP, timestamp)) {
+			try {
+				out.writeInt(keyCode);
+				out.writeInt(modifiersEx);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	public synchronized void recordMouseMove(int deltaX, int deltaY, long timestamp) {
+		if (startRecord(TYPE_MOUSE_MOVE, timestamp)) {
+			try {
+				out.writeInt(deltaX);
+				out.writeInt(deltaY);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	public synchronized void recordMouseButton(byte button, boolean down, long timestamp) {
+		if (startRecord(down ? TYPE_MOUSE_BUTTON_DOWN : TYPE_MOUSE_BUTTON_UP, timestamp)) {
+			try {
+				out.writeByte(button);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	public synchronized void recordMouseScroll(byte amount, long timestamp) {
+		if (startRecord(TYPE_MOUSE_SCROLL, timestamp)) {
+			try {
+				out.writeByte(amount);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	public synchronized void recordGamepadAdded(Device device, long timestamp) {
+		if (startRecord(TYPE_GAMEPAD_ADDED, timestamp)) {
+			try {
+				out.writeInt(device.getId());
+				out.writeInt(device.getNumButtons());
+				out.writeInt(device.getNumAxes());
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	public synchronized void recordGamepadRemoved(Device device, long timestamp) {
+		if (startRecord(TYPE_GAMEPAD_REMOVED, timestamp)) {
+			try {
+				out.writeInt(device.getId());
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	public synchronized void recordGamepadButton(Device device, int buttonId, boolean pressed, long timestamp) {
+		if (startRecord(TYPE_GAMEPAD_BUTTON, timestamp)) {
+			try {
+				out.writeInt(device.getId());
+				out.writeInt(buttonId);
+				out.writeBoolean(pressed);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	public synchronized void recordGamepadAxis(Device device, int axisId, float newValue, float lastValue, long timestamp) {
+		if (startRecord(TYPE_GAMEPAD_AXIS, timestamp)) {
+			try {
+				out.writeInt(device.getId());
+				out.writeInt(axisId);
+				out.writeFloat(newValue);
+				out.writeFloat(lastValue);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+	}
+
+	public synchronized void recordGamepadPollComplete(long timestamp) {
+		startRecord(TYPE_GAMEPAD_POLL_COMPLETE, timestamp);
+	}
+
+	/*
+	 * Writes the common part of a record. Returns false if recording has stopped.
+	 */
+	private boolean startRecord(int type, long timestamp) {
+		if (out == null) {
+			return false;
+		}
+
+		// Events from different devices are recorded from different threads, so time can go backwards
+		long deltaUs = (timestamp - lastTimestamp) / 1000;
+		deltaUs = Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, deltaUs));
+		lastTimestamp = timestamp;
+
+		try {
+			out.writeByte(type);
+			out.writeInt((int) deltaUs);
+		} catch (IOException e) {
+			fail(e);
+			return false;
+		}
+
+		eventsRecorded++;
+		return true;
+	}
+
+	private void fail(IOException e) {
+		LimeLog.warning("Input recording to "+file+" failed: "+e.getMessage());
+		try {
+			out.close();
+		} catch (IOException e2) {}
+		out = null;
+	}
+
+	/**
+	 * Finishes writing the recording
+	 */
+	public synchronized void close() {
+		if (out == null) {
+			return;
+		}
+
+		try {
+			out.close();
+		} catch (IOException e) {
+			LimeLog.warning("Input recording to "+file+" failed: "+e.getMessage());
+		}
+		out = null;
+		LimeLog.info("Recorded "+eventsRecorded+" input events to "+file);
+	}
+}
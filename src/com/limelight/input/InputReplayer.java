@@ -0,0 +1,274 @@
+package com.limelight.input;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import com.limelight.LimeLog;
+import com.limelight.input.gamepad.GamepadHandler;
+import com.limelight.settings.PreferencesManager.Preferences;
+import com.limelight.stats.LatencyHistogram;
+
+/**
+ * Replays a recording made by <code>InputRecorder</code> through the keyboard handler, mouse
+ * motion coalescer and gamepad handler, either with the original timing, faster or slower,
+ * or as fast as possible.
+ */
+public class InputReplayer {
+	private final File file;
+	private final HashMap<Integer, Device> devices = new HashMap<Integer, Device>();
+
+	private long eventsReplayed;
+	private long replayTimeNs;
+	private long totalCostNs;
+	private final LatencyHistogram eventCost = new LatencyHistogram("Replay per-event cost", 1, 1000);
+
+	/**
+	 * Creates a replayer for a recording
+	 * @param file the recording
+	 */
+	public InputReplayer(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Replays the recording. Events are given the time they are replayed as their
+	 * origin time, so the dispatcher's latency tracing stays meaningful.
+	 * <br>Events for a handler that is null are skipped.
+	 * @param keyboard the handler to replay key events into
+	 * @param mouse the coalescer to replay mouse events into
+	 * @param gamepad the handler to replay gamepad events into
+	 * @param speed how much faster than recorded to replay, or 0 to replay as fast as possible
+	 * @throws IOException if the recording can't be read
+	 */
+	public void replay(KeyboardHandler keyboard, MouseMotionCoalescer mouse, GamepadHandler gamepad,
+			double speed) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != InputRecorder.MAGIC) {
+				throw new IOException(file+" is not an input recording");
+			}
+			int version = in.readUnsignedByte();
+			if (version != InputRecorder.VERSION) {
+				throw new IOException("Unsupported input recording version "+version);
+			}
+
+			long startTime = System.nanoTime();
+			long recordedUs = 0;
+			for (;;) {
+				int type;
+				try {
+					type = in.readUnsignedByte();
+				} catch (EOFException e) {
+					break;
+				}
+
+				recordedUs += in.readInt();
+				if (speed > 0) {
+					long dueTime = startTime + (long)(recordedUs * 1000 / speed);
+					long now;
+					while ((now = System.nanoTime()) < dueTime) {
+						LockSupport.parkNanos(dueTime - now);
+					}
+				}
+
+				replayEvent(type, in, keyboard, mouse, gamepad);
+			}
+
+			replayTimeNs = System.nanoTime() - startTime;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void replayEvent(int type, DataInputStream in, KeyboardHandler keyboard,
+			MouseMotionCoalescer mouse, GamepadHandler gamepad) throws IOException {
+		long timestamp;
+		switch (type) {
+		case InputRecorder.TYPE_KEY_DOWN:
+		case InputRecorder.TYPE_KEY_UP: {
+			int keyCode = in.readInt();
+			int modifiers = in.readInt();
+			timestamp = System.nanoTime();
+			if (keyboard == null) {
+				return;
+			}
+			if (type == InputRecorder.TYPE_KEY_DOWN) {
+				keyboard.keyDown(keyCode, modifiers, timestamp);
+			}
+			else {
+				keyboard.keyUp(keyCode, modifiers, timestamp);
+			}
+			break;
+		}
+		case InputRecorder.TYPE_MOUSE_MOVE: {
+			int deltaX = in.readInt();
+			int deltaY = in.readInt();
+			timestamp = System.nanoTime();
+			if (mouse == null) {
+				return;
+			}
+			mouse.addMotion(deltaX, deltaY, timestamp);
+			break;
+		}
+		case InputRecorder.TYPE_MOUSE_BUTTON_DOWN: {
+			byte button = in.readByte();
+			timestamp = System.nanoTime();
+			if (mouse == null) {
+				return;
+			}
+			mouse.sendButtonDown(button, timestamp);
+			break;
+		}
+		case InputRecorder.TYPE_MOUSE_BUTTON_UP: {
+			byte button = in.readByte();
+			timestamp = System.nanoTime();
+			if (mouse == null) {
+				return;
+			}
+			mouse.sendButtonUp(button, timestamp);
+			break;
+		}
+		case InputRecorder.TYPE_MOUSE_SCROLL: {
+			byte amount = in.readByte();
+			timestamp = System.nanoTime();
+			if (mouse == null) {
+				return;
+			}
+			mouse.sendScroll(amount, timestamp);
+			break;
+		}
+		case InputRecorder.TYPE_GAMEPAD_ADDED: {
+			Device device = new Device(in.readInt(), in.readInt(), in.readInt());
+			devices.put(device.getId(), device);
+			timestamp = System.nanoTime();
+			if (gamepad == null) {
+				return;
+			}
+			gamepad.handleDeviceAdded(device);
+			break;
+		}
+		case InputRecorder.TYPE_GAMEPAD_REMOVED: {
+			Device device = getDevice(in.readInt());
+			devices.remove(device.getId());
+			timestamp = System.nanoTime();
+			if (gamepad == null) {
+				return;
+			}
+			gamepad.handleDeviceRemoved(device);
+			break;
+		}
+		case InputRecorder.TYPE_GAMEPAD_BUTTON: {
+			Device device = getDevice(in.readInt());
+			int buttonId = in.readInt();
+			boolean pressed = in.readBoolean();
+			timestamp = System.nanoTime();
+			if (gamepad == null) {
+				return;
+			}
+			gamepad.handleButton(device, buttonId, pressed, timestamp);
+			break;
+		}
+		case InputRecorder.TYPE_GAMEPAD_AXIS: {
+			Device device = getDevice(in.readInt());
+			int axisId = in.readInt();
+			float newValue = in.readFloat();
+			float lastValue = in.readFloat();
+			timestamp = System.nanoTime();
+			if (gamepad == null) {
+				return;
+			}
+			gamepad.handleAxis(device, axisId, newValue, lastValue, timestamp);
+			break;
+		}
+		case InputRecorder.TYPE_GAMEPAD_POLL_COMPLETE:
+			timestamp = System.nanoTime();
+			if (gamepad == null) {
+				return;
+			}
+			gamepad.handlePollComplete();
+			break;
+		default:
+			throw new IOException("Corrupt input recording: unknown event type "+type);
+		}
+
+		long cost = System.nanoTime() - timestamp;
+		eventCost.recordNanos(cost);
+		totalCostNs += cost;
+		eventsReplayed++;
+	}
+
+	/*
+	 * Gets a replayed gamepad. Gamepads that were attached before recording started
+	 * never had an attach event recorded, so they are created on first use.
+	 */
+	private Device getDevice(int deviceId) {
+		Device device = devices.get(deviceId);
+		if (device == null) {
+			device = new Device(deviceId, 0, 0);
+			devices.put(deviceId, device);
+		}
+		return device;
+	}
+
+	/**
+	 * Replays a recording as a benchmark through new handlers that send to a sink that only
+	 * counts packets, and logs the throughput and cost of the input path
+	 * @param file the recording
+	 * @param speed how much faster than recorded to replay, or 0 to replay as fast as possible
+	 */
+	public static void benchmark(File file, double speed) {
+		CountingInputSink sink = new CountingInputSink();
+		InputDispatcher dispatcher = new InputDispatcher(sink);
+		KeyboardHandler keyboard = new KeyboardHandler(dispatcher, null);
+		MouseMotionCoalescer mouse = new MouseMotionCoalescer(dispatcher, Preferences.DEFAULT_MOUSE_TICK_MS);
+		GamepadHandler gamepad = new GamepadHandler(dispatcher);
+		InputReplayer replayer = new InputReplayer(file);
+
+		mouse.start();
+		long startTime = System.nanoTime();
+		try {
+			replayer.replay(keyboard, mouse, gamepad, speed);
+		} catch (IOException e) {
+			LimeLog.severe("Input replay failed: "+e.getMessage());
+		}
+
+		// Sends the motion still waiting for a tick
+		mouse.stop();
+		long totalTimeNs = System.nanoTime() - startTime;
+		dispatcher.stop();
+		keyboard.logSummary();
+		gamepad.logSummary();
+
+		LimeLog.info(replayer.toString());
+		LimeLog.info("Input replay throughput: "+(replayer.eventsReplayed * 1000000000L / Math.max(1, totalTimeNs))+
+				" events/s, "+(sink.getPacketCount() * 1000000000L / Math.max(1, totalTimeNs))+" packets/s; "+sink);
+	}
+
+	/**
+	 * Gets the number of events replayed
+	 * @return the event count
+	 */
+	public long getEventsReplayed() {
+		return eventsReplayed;
+	}
+
+	/**
+	 * Gets the histogram of time spent injecting each event
+	 * @return the per-event cost histogram
+	 */
+	public LatencyHistogram getEventCost() {
+		return eventCost;
+	}
+
+	@Override
+	public String toString() {
+		return "Input replay: "+eventsReplayed+" events in "+(replayTimeNs / 1000000)+" ms, mean cost "+
+				(totalCostNs / Math.max(1, eventsReplayed))+" ns per event; "+eventCost;
+	}
+}
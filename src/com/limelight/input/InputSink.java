@@ -0,0 +1,20 @@
+package com.limelight.input;
+
+/**
+ * Where the input dispatcher delivers input packets. Normally this is the
+ * stream connection, but input can also be sent to a stub when benchmarking.
+ */
+public interface InputSink {
+	public void sendKeyboardInput(short keyCode, byte keyDirection, byte modifiers);
+
+	public void sendMouseMove(short deltaX, short deltaY);
+
+	public void sendMouseButtonDown(byte button);
+
+	public void sendMouseButtonUp(byte button);
+
+	public void sendMouseScroll(byte amount);
+
+	public void sendControllerInput(short controllerNumber, short buttonFlags, byte leftTrigger, byte rightTrigger,
+			short leftStickX, short leftStickY, short rightStickX, short rightStickY);
+}
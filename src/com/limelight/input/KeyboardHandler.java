@@ -2,11 +2,10 @@ package com.limelight.input;
 
 import com.limelight.LimeLog;
 import com.limelight.gui.StreamFrame;
-import com.limelight.nvstream.NvConnection;
-import com.limelight.nvstream.input.KeyboardPacket;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.util.BitSet;
 
 /**
  * Class that handles keyboard input
@@ -18,13 +17,20 @@ public class KeyboardHandler implements KeyListener {
     private StreamFrame parent;
     private boolean mouseCaptured = true;
 
+    // Keys whose key-down was sent and not yet released, by Java key code
+    private BitSet pressedKeys = new BitSet();
+    private long repeatsSuppressed;
+    private long unmatchedUpsSuppressed;
+    private long keysReleasedOnFocusLoss;
+    private volatile InputRecorder recorder;
+
     /**
      * Constructs a new keyboard listener that will send key events to the specified connection
      * and belongs to the specified frame
-     * @param conn the connection to send key events to
+     * @param conn the dispatcher to send key events through
      * @param parent the frame that owns this handler
      */
-    public KeyboardHandler(NvConnection conn, StreamFrame parent) {
+    public KeyboardHandler(InputDispatcher conn, StreamFrame parent) {
         this.translator = new KeyboardTranslator(conn);
         this.parent = parent;
     }
@@ -33,29 +39,28 @@ public class KeyboardHandler implements KeyListener {
      * Invoked when a key is pressed and will send that key-down event to the host
      * @param event the key-down event
      */
-    public void keyPressed(KeyEvent event) {
+    public synchronized void keyPressed(KeyEvent event) {
         if (event.isConsumed()) return;
         event.consume();
 
-        short keyMap = translator.translate(event.getKeyCode());
-
-        byte modifier = 0x0;
-
+        int keyCode = event.getKeyCode();
         int modifiers = event.getModifiersEx();
-        if ((modifiers & KeyEvent.SHIFT_DOWN_MASK) != 0) {
-            modifier |= KeyboardPacket.MODIFIER_SHIFT;
-        }
-        if ((modifiers & KeyEvent.CTRL_DOWN_MASK) != 0) {
-            modifier |= KeyboardPacket.MODIFIER_CTRL;
-        }
-        if ((modifiers & KeyEvent.ALT_DOWN_MASK) != 0) {
-            modifier |= KeyboardPacket.MODIFIER_ALT;
+        if (!pressedKeys.get(keyCode) && handleShortcut(keyCode, modifiers)) {
+            return;
         }
 
+        keyDown(keyCode, modifiers, InputClock.fromWallClockMillis(event.getWhen()));
+    }
+
+    /*
+     * Handles the local shortcuts, which are never sent to the host.
+     * Returns true if the key event was a shortcut.
+     */
+    private boolean handleShortcut(int keyCode, int modifiers) {
         if ((modifiers & KeyEvent.SHIFT_DOWN_MASK) != 0 &&
             (modifiers & KeyEvent.ALT_DOWN_MASK) != 0 &&
             (modifiers & KeyEvent.CTRL_DOWN_MASK) != 0 &&
-            event.getKeyCode() == KeyEvent.VK_Q) {
+            keyCode == KeyEvent.VK_Q) {
             LimeLog.info("quitting");
             
             // Free mouse before closing to avoid the mouse code
@@ -63,7 +68,7 @@ public class KeyboardHandler implements KeyListener {
             parent.freeMouse();
             
             parent.close();
-            return;
+            return true;
         } else if (
                 (modifiers & KeyEvent.SHIFT_DOWN_MASK) != 0 &&
                 (modifiers & KeyEvent.ALT_DOWN_MASK) != 0 &&
@@ -74,38 +79,94 @@ public class KeyboardHandler implements KeyListener {
                 parent.captureMouse();
             }
             mouseCaptured = !mouseCaptured;
-            return;
+            return true;
         }
 
+        return false;
+    }
 
+    /**
+     * Sends a key-down event to the host unless the key is already held
+     * @param keyCode the Java key code
+     * @param modifiers the extended modifiers of the key event
+     * @param timestamp when the key was pressed on the <code>System.nanoTime()</code> clock
+     */
+    synchronized void keyDown(int keyCode, int modifiers, long timestamp) {
+        InputRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.recordKey(keyCode, modifiers, true, timestamp);
+        }
 
-        translator.sendKeyDown(keyMap, modifier);
+        if (pressedKeys.get(keyCode)) {
+            // Auto-repeat; the host repeats held keys itself
+            repeatsSuppressed++;
+            return;
+        }
+
+        pressedKeys.set(keyCode);
+        translator.sendKeyDown(translator.translate(keyCode), translator.translateModifiers(modifiers), timestamp);
     }
 
     /**
      * Invoked when a key is released and will send that key-up event to the host
      * @param event the key-up event
      */
-    public void keyReleased(KeyEvent event) {
+    public synchronized void keyReleased(KeyEvent event) {
         if (event.isConsumed()) return;
         event.consume();
 
-        short keyMap = translator.translate(event.getKeyCode());
-
-        byte modifier = 0x0;
+        keyUp(event.getKeyCode(), event.getModifiersEx(), InputClock.fromWallClockMillis(event.getWhen()));
+    }
 
-        int modifiers = event.getModifiersEx();
-        if ((modifiers & KeyEvent.SHIFT_DOWN_MASK) != 0) {
-            modifier |= KeyboardPacket.MODIFIER_SHIFT;
+    /**
+     * Sends a key-up event to the host if the key-down was sent
+     * @param keyCode the Java key code
+     * @param modifiers the extended modifiers of the key event
+     * @param timestamp when the key was released on the <code>System.nanoTime()</code> clock
+     */
+    synchronized void keyUp(int keyCode, int modifiers, long timestamp) {
+        InputRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.recordKey(keyCode, modifiers, false, timestamp);
         }
-        if ((modifiers & KeyEvent.CTRL_DOWN_MASK) != 0) {
-            modifier |= KeyboardPacket.MODIFIER_CTRL;
+
+        if (!pressedKeys.get(keyCode)) {
+            // The key-down was never sent or the key was already released
+            unmatchedUpsSuppressed++;
+            return;
         }
-        if ((modifiers & KeyEvent.ALT_DOWN_MASK) != 0) {
-            modifier |= KeyboardPacket.MODIFIER_ALT;
+        pressedKeys.clear(keyCode);
+
+        translator.sendKeyUp(translator.translate(keyCode), translator.translateModifiers(modifiers), timestamp);
+    }
+
+    /**
+     * Records every key event sent to the host from now on
+     * @param recorder the recorder or null to stop recording
+     */
+    public void setRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Sends a key-up event for every key that is still held, such as when the
+     * window loses focus and won't see the keys being released
+     */
+    public synchronized void releaseAllKeys() {
+        for (int keyCode = pressedKeys.nextSetBit(0); keyCode >= 0; keyCode = pressedKeys.nextSetBit(keyCode + 1)) {
+            translator.sendKeyUp(translator.translate(keyCode), (byte) 0);
+            keysReleasedOnFocusLoss++;
         }
+        pressedKeys.clear();
+    }
 
-        translator.sendKeyUp(keyMap, modifier);
+    /**
+     * Logs how many key packets were not sent because they were redundant
+     */
+    public synchronized void logSummary() {
+        LimeLog.info("Keyboard input: "+(repeatsSuppressed + unmatchedUpsSuppressed)+" packets saved ("+
+                repeatsSuppressed+" auto-repeats, "+unmatchedUpsSuppressed+" unmatched key-ups), "+
+                keysReleasedOnFocusLoss+" held keys released on focus loss");
     }
 
     /**
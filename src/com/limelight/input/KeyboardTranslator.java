@@ -1,6 +1,6 @@
 package com.limelight.input;
 
-import com.limelight.nvstream.NvConnection;
+import com.limelight.nvstream.input.KeyboardPacket;
 import com.limelight.nvstream.input.KeycodeTranslator;
 
 import java.awt.event.KeyEvent;
@@ -17,11 +17,74 @@ public class KeyboardTranslator extends KeycodeTranslator {
     public static final short KEY_PREFIX = (short) 0x80;
 
     /**
-     * Constructs a new translator for the specified connection
-     * @param conn the connection to which the translated codes are sent
+     * Java key codes below this are translated by table lookup
      */
-    public KeyboardTranslator(NvConnection conn) {
-        super(conn);
+    private static final int KEY_TABLE_SIZE = 0x400;
+
+    private static final short[] keyTable = new short[KEY_TABLE_SIZE];
+
+    // Indexed by the SHIFT, CTRL and ALT bits packed by modifierIndex()
+    private static final byte[] modifierTable = new byte[8];
+
+    static {
+        for (int keycode = 0; keycode < KEY_TABLE_SIZE; keycode++) {
+            keyTable[keycode] = translateUncached(keycode);
+        }
+
+        for (int i = 0; i < modifierTable.length; i++) {
+            byte modifier = 0;
+            if ((i & 1) != 0) {
+                modifier |= KeyboardPacket.MODIFIER_SHIFT;
+            }
+            if ((i & 2) != 0) {
+                modifier |= KeyboardPacket.MODIFIER_CTRL;
+            }
+            if ((i & 4) != 0) {
+                modifier |= KeyboardPacket.MODIFIER_ALT;
+            }
+            modifierTable[i] = modifier;
+        }
+    }
+
+    private InputDispatcher dispatcher;
+
+    /**
+     * Constructs a new translator for the specified dispatcher
+     * @param dispatcher the dispatcher through which the translated codes are sent
+     */
+    public KeyboardTranslator(InputDispatcher dispatcher) {
+        super(null);
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void sendKeyDown(short keyMap, byte modifier) {
+        sendKeyDown(keyMap, modifier, System.nanoTime());
+    }
+
+    @Override
+    public void sendKeyUp(short keyMap, byte modifier) {
+        sendKeyUp(keyMap, modifier, System.nanoTime());
+    }
+
+    /**
+     * Sends a key-down event that happened at the given time
+     * @param keyMap the GFE keycode
+     * @param modifier the modifier keys held
+     * @param timestamp when the key was pressed on the <code>System.nanoTime()</code> clock
+     */
+    public void sendKeyDown(short keyMap, byte modifier, long timestamp) {
+        dispatcher.sendKeyboardInput(keyMap, KeyboardPacket.KEY_DOWN, modifier, timestamp);
+    }
+
+    /**
+     * Sends a key-up event that happened at the given time
+     * @param keyMap the GFE keycode
+     * @param modifier the modifier keys held
+     * @param timestamp when the key was released on the <code>System.nanoTime()</code> clock
+     */
+    public void sendKeyUp(short keyMap, byte modifier, long timestamp) {
+        dispatcher.sendKeyboardInput(keyMap, KeyboardPacket.KEY_UP, modifier, timestamp);
     }
 
     /**
@@ -31,7 +94,30 @@ public class KeyboardTranslator extends KeycodeTranslator {
      */
     @Override
     public short translate(int keycode) {
+        if (keycode >= 0 && keycode < KEY_TABLE_SIZE) {
+            return keyTable[keycode];
+        }
+        return translateUncached(keycode);
+    }
+
+    /**
+     * Gets the GFE modifier flags for the given extended modifiers
+     * @param modifiersEx the modifiers from <code>InputEvent.getModifiersEx()</code>
+     * @return the GFE modifier flags
+     */
+    public byte translateModifiers(int modifiersEx) {
+        return modifierTable[modifierIndex(modifiersEx)];
+    }
+
+    /*
+     * Packs SHIFT_DOWN_MASK (bit 6), CTRL_DOWN_MASK (bit 7) and ALT_DOWN_MASK (bit 9)
+     * into bits 0, 1 and 2
+     */
+    private static int modifierIndex(int modifiersEx) {
+        return ((modifiersEx >> 6) & 0x3) | ((modifiersEx >> 7) & 0x4);
+    }
 
+    private static short translateUncached(int keycode) {
         switch (keycode) {
             case KeyEvent.VK_DELETE:
                 keycode = 0x2e;
@@ -9,11 +9,12 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.io.File;
 
 import javax.swing.SwingUtilities;
 
+import com.limelight.LimeLog;
 import com.limelight.gui.StreamFrame;
-import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.input.MouseButtonPacket;
 
 /**
@@ -21,7 +22,8 @@ import com.limelight.nvstream.input.MouseButtonPacket;
  * @author Diego Waxemberg
  */
 public class MouseHandler implements MouseListener, MouseMotionListener, MouseWheelListener {
-	private NvConnection conn;
+	private MouseMotionCoalescer sender;
+	private volatile EvdevMouseReader rawReader;
 	private Robot robot;
 	private Dimension size;
 	private StreamFrame parent;
@@ -32,12 +34,14 @@ public class MouseHandler implements MouseListener, MouseMotionListener, MouseWh
 	private final double mouseThresh = 0.45;
 	
 	/**
-	 * Constructs a new handler for the specified connection and belonging to the specified frame
-	 * @param conn the connection to which mouse events will be sent
+	 * Constructs a new handler for the specified dispatcher and belonging to the specified frame
+	 * @param conn the dispatcher through which mouse events will be sent
 	 * @param parent the frame that owns this handler
+	 * @param tickMs how often mouse motion is sent to the host, or 0 to send every event
+	 * @param rawDevice the evdev device to read raw motion from, "auto" to find one, or null to use AWT events
 	 */
-	public MouseHandler(NvConnection conn, StreamFrame parent) {
-		this.conn = conn;
+	public MouseHandler(InputDispatcher conn, StreamFrame parent, int tickMs, String rawDevice) {
+		this.sender = new MouseMotionCoalescer(conn, tickMs);
 		this.parent = parent;
 		try {
 			this.robot = new Robot();
@@ -45,6 +49,64 @@ public class MouseHandler implements MouseListener, MouseMotionListener, MouseWh
 			e.printStackTrace();
 		}
 		size = new Dimension();
+		sender.start();
+		
+		if (rawDevice != null) {
+			startRawInput(rawDevice);
+		}
+	}
+	
+	/*
+	 * Starts reading motion from evdev. AWT events are then only used to keep the cursor
+	 * inside the window, so warping no longer produces motion that is sent to the host.
+	 */
+	private void startRawInput(String rawDevice) {
+		File device = rawDevice.equals("auto") ? EvdevMouseReader.findMouseDevice() : new File(rawDevice);
+		if (device == null) {
+			LimeLog.warning("No evdev mouse found; using AWT mouse events");
+			return;
+		}
+		
+		rawReader = new EvdevMouseReader(device, sender);
+		if (!rawReader.start()) {
+			rawReader = null;
+		}
+	}
+
+	/*
+	 * Checks whether mouse events come from evdev. If the reader stopped by itself,
+	 * AWT events are used from then on so the mouse keeps working.
+	 */
+	private boolean usingRawInput() {
+		EvdevMouseReader reader = rawReader;
+		if (reader == null) {
+			return false;
+		}
+		if (!reader.isRunning()) {
+			LimeLog.warning("Raw mouse input stopped; using AWT mouse events");
+			rawReader = null;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the coalescer that both AWT and evdev mouse events are sent through
+	 * @return the motion coalescer
+	 */
+	public MouseMotionCoalescer getMotionCoalescer() {
+		return sender;
+	}
+
+	/**
+	 * Sends any pending motion and stops sending mouse events to the host
+	 */
+	public void stop() {
+		EvdevMouseReader reader = rawReader;
+		if (reader != null) {
+			reader.stop();
+		}
+		sender.stop();
 	}
 
 	/**
@@ -52,6 +114,9 @@ public class MouseHandler implements MouseListener, MouseMotionListener, MouseWh
 	 */
 	public void free() {
 		captureMouse = false;
+		if (usingRawInput()) {
+			rawReader.setEnabled(false);
+		}
 	}
 
 	/**
@@ -61,6 +126,9 @@ public class MouseHandler implements MouseListener, MouseMotionListener, MouseWh
 		moveMouse((int)parent.getLocationOnScreen().getX() + (size.width/2),
 				(int)parent.getLocationOnScreen().getY() + (size.height/2));
 		captureMouse = true;
+		if (usingRawInput()) {
+			rawReader.setEnabled(true);
+		}
 	}
 
 	/**
@@ -118,8 +186,8 @@ public class MouseHandler implements MouseListener, MouseMotionListener, MouseWh
 		if (captureMouse) {
 			byte mouseButton = getButtonFromEvent(e);
 			
-			if (mouseButton > 0) {
-				conn.sendMouseButtonDown(mouseButton);
+			if (mouseButton > 0 && !usingRawInput()) {
+				sender.sendButtonDown(mouseButton, InputClock.fromWallClockMillis(e.getWhen()));
 			}
 			
 			// super jank to get cursor to not appear in OSX FSEM.
@@ -146,8 +214,8 @@ public class MouseHandler implements MouseListener, MouseMotionListener, MouseWh
 		if (captureMouse) {
 			byte mouseButton = getButtonFromEvent(e);
 			
-			if (mouseButton > 0) {
-				conn.sendMouseButtonUp(mouseButton);
+			if (mouseButton > 0 && !usingRawInput()) {
+				sender.sendButtonUp(mouseButton, InputClock.fromWallClockMillis(e.getWhen()));
 			}
 		}
 		e.consume();
@@ -178,7 +246,9 @@ public class MouseHandler implements MouseListener, MouseMotionListener, MouseWh
 			Point mouse = e.getLocationOnScreen();
 			int x = (int)mouse.getX();
 			int y = (int)mouse.getY();
-			conn.sendMouseMove((short)(x - lastX), (short)(y - lastY));
+			if (!usingRawInput()) {
+				sender.addMotion(x - lastX, y - lastY, InputClock.fromWallClockMillis(e.getWhen()));
+			}
 			lastX = x;
 			lastY = y;
 			
@@ -232,7 +302,9 @@ public class MouseHandler implements MouseListener, MouseMotionListener, MouseWh
 	}
 
 	public void mouseWheelMoved(MouseWheelEvent event) {
-		conn.sendMouseScroll((byte) -event.getWheelRotation());
+		if (!usingRawInput()) {
+			sender.sendScroll((byte) -event.getWheelRotation(), InputClock.fromWallClockMillis(event.getWhen()));
+		}
 		event.consume();
 	}
 
@@ -0,0 +1,218 @@
+package com.limelight.input;
+
+import com.limelight.LimeLog;
+
+/**
+ * Accumulates relative mouse motion and sends it to the host once per tick.
+ * <br>Button and scroll events flush any pending motion first so the host sees
+ * input in the same order it was generated.
+ */
+public class MouseMotionCoalescer {
+	private final InputDispatcher conn;
+	private final int tickMs;
+	private volatile Thread flushThread;
+	private volatile InputRecorder recorder;
+	private boolean stopped;
+
+	private int pendingDx;
+	private int pendingDy;
+
+	// Time of the oldest motion that hasn't been sent yet
+	private long pendingSince;
+
+	private long eventsReceived;
+	private long packetsSent;
+
+	/**
+	 * Creates a coalescer for the given dispatcher
+	 * @param conn the dispatcher that packets are sent through
+	 * @param tickMs how often accumulated motion is sent, or 0 to send every event immediately
+	 */
+	public MouseMotionCoalescer(InputDispatcher conn, int tickMs) {
+		this.conn = conn;
+		this.tickMs = tickMs;
+	}
+
+	/**
+	 * Starts the thread that sends accumulated motion every tick
+	 */
+	public void start() {
+		if (tickMs <= 0) {
+			return;
+		}
+
+		flushThread = new Thread() {
+			@Override
+			public void run() {
+				while (!isInterrupted()) {
+					try {
+						Thread.sleep(tickMs);
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					flush();
+				}
+			}
+		};
+		flushThread.setName("Input - Mouse Motion");
+		flushThread.setPriority(Thread.MAX_PRIORITY - 1);
+		flushThread.start();
+	}
+
+	/**
+	 * Stops the flush thread after sending any remaining motion
+	 */
+	public void stop() {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+
+		if (flushThread != null) {
+			flushThread.interrupt();
+			try {
+				flushThread.join();
+			} catch (InterruptedException e) {}
+			flushThread = null;
+		}
+
+		flush();
+		LimeLog.info("Mouse motion: "+getEventsReceived()+" events sent in "+getPacketsSent()+" packets");
+	}
+
+	/**
+	 * Records every mouse event given to the coalescer from now on, before it is merged
+	 * @param recorder the recorder or null to stop recording
+	 */
+	public void setRecorder(InputRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Adds relative motion to be sent on the next tick
+	 * @param dx the horizontal movement
+	 * @param dy the vertical movement
+	 */
+	public void addMotion(int dx, int dy) {
+		addMotion(dx, dy, System.nanoTime());
+	}
+
+	/**
+	 * Adds relative motion to be sent on the next tick
+	 * @param dx the horizontal movement
+	 * @param dy the vertical movement
+	 * @param timestamp when the motion happened on the <code>System.nanoTime()</code> clock
+	 */
+	public synchronized void addMotion(int dx, int dy, long timestamp) {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.recordMouseMove(dx, dy, timestamp);
+		}
+
+		eventsReceived++;
+		if (pendingDx == 0 && pendingDy == 0) {
+			pendingSince = timestamp;
+		}
+		pendingDx += dx;
+		pendingDy += dy;
+
+		if (flushThread == null) {
+			flush();
+		}
+	}
+
+	/**
+	 * Sends any accumulated motion to the host
+	 */
+	public synchronized void flush() {
+		// Large accumulated deltas are split to fit the packet's 16-bit fields
+		while (pendingDx != 0 || pendingDy != 0) {
+			short dx = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, pendingDx));
+			short dy = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, pendingDy));
+
+			conn.sendMouseMove(dx, dy, pendingSince);
+			packetsSent++;
+
+			pendingDx -= dx;
+			pendingDy -= dy;
+		}
+	}
+
+	/**
+	 * Sends a button press after any pending motion
+	 * @param button the button that was pressed
+	 */
+	public void sendButtonDown(byte button) {
+		sendButtonDown(button, System.nanoTime());
+	}
+
+	/**
+	 * Sends a button press after any pending motion
+	 * @param button the button that was pressed
+	 * @param timestamp when the button was pressed on the <code>System.nanoTime()</code> clock
+	 */
+	public synchronized void sendButtonDown(byte button, long timestamp) {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.recordMouseButton(button, true, timestamp);
+		}
+
+		flush();
+		conn.sendMouseButtonDown(button, timestamp);
+	}
+
+	/**
+	 * Sends a button release after any pending motion
+	 * @param button the button that was released
+	 */
+	public void sendButtonUp(byte button) {
+		sendButtonUp(button, System.nanoTime());
+	}
+
+	/**
+	 * Sends a button release after any pending motion
+	 * @param button the button that was released
+	 * @param timestamp when the button was released on the <code>System.nanoTime()</code> clock
+	 */
+	public synchronized void sendButtonUp(byte button, long timestamp) {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.recordMouseButton(button, false, timestamp);
+		}
+
+		flush();
+		conn.sendMouseButtonUp(button, timestamp);
+	}
+
+	/**
+	 * Sends a scroll event after any pending motion
+	 * @param amount the scroll amount
+	 */
+	public void sendScroll(byte amount) {
+		sendScroll(amount, System.nanoTime());
+	}
+
+	/**
+	 * Sends a scroll event after any pending motion
+	 * @param amount the scroll amount
+	 * @param timestamp when the wheel moved on the <code>System.nanoTime()</code> clock
+	 */
+	public synchronized void sendScroll(byte amount, long timestamp) {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.recordMouseScroll(amount, timestamp);
+		}
+
+		flush();
+		conn.sendMouseScroll(amount, timestamp);
+	}
+
+	public synchronized long getEventsReceived() {
+		return eventsReceived;
+	}
+
+	public synchronized long getPacketsSent() {
+		return packetsSent;
+	}
+}
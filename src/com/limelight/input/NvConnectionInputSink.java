@@ -0,0 +1,46 @@
+package com.limelight.input;
+
+import com.limelight.nvstream.NvConnection;
+
+/**
+ * Sends input packets to the host over a stream connection
+ */
+public class NvConnectionInputSink implements InputSink {
+	private final NvConnection conn;
+
+	public NvConnectionInputSink(NvConnection conn) {
+		this.conn = conn;
+	}
+
+	@Override
+	public void sendKeyboardInput(short keyCode, byte keyDirection, byte modifiers) {
+		conn.sendKeyboardInput(keyCode, keyDirection, modifiers);
+	}
+
+	@Override
+	public void sendMouseMove(short deltaX, short deltaY) {
+		conn.sendMouseMove(deltaX, deltaY);
+	}
+
+	@Override
+	public void sendMouseButtonDown(byte button) {
+		conn.sendMouseButtonDown(button);
+	}
+
+	@Override
+	public void sendMouseButtonUp(byte button) {
+		conn.sendMouseButtonUp(button);
+	}
+
+	@Override
+	public void sendMouseScroll(byte amount) {
+		conn.sendMouseScroll(amount);
+	}
+
+	@Override
+	public void sendControllerInput(short controllerNumber, short buttonFlags, byte leftTrigger, byte rightTrigger,
+			short leftStickX, short leftStickY, short rightStickX, short rightStickY) {
+		conn.sendControllerInput(controllerNumber, buttonFlags, leftTrigger, rightTrigger,
+				leftStickX, leftStickY, rightStickX, rightStickY);
+	}
+}
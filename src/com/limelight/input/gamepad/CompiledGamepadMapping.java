@@ -0,0 +1,133 @@
+package com.limelight.input.gamepad;
+
+import java.util.EnumMap;
+import java.util.Set;
+
+import com.limelight.input.gamepad.GamepadMapping.Mapping;
+import com.limelight.input.gamepad.SourceComponent.Direction;
+
+/**
+ * A lookup-optimized form of a <code>GamepadMapping</code> used on the event path.
+ * <br>Buttons are looked up by ID and axes by ID and direction in flat arrays, so
+ * handling an event never allocates. The reverse index from gamepad components to
+ * their sources is an <code>EnumMap</code> instead of a scan over the mapping.
+ */
+public class CompiledGamepadMapping {
+	private final GamepadMapping source;
+	private final int sourceModificationCount;
+
+	private final Mapping[] buttons;
+
+	// Indexed by (axis ID * 2) + 0 for the positive direction or + 1 for the negative direction
+	private final Mapping[] axes;
+
+	private final EnumMap<GamepadComponent, SourceComponent> reverse =
+			new EnumMap<GamepadComponent, SourceComponent>(GamepadComponent.class);
+
+	private CompiledGamepadMapping(GamepadMapping source) {
+		this.source = source;
+
+		// Hold the mapping's lock so an edit on the EDT can't land halfway through
+		synchronized (source) {
+			this.sourceModificationCount = source.getModificationCount();
+			Set<SourceComponent> comps = source.getSourceComponents();
+
+			int maxButton = -1, maxAxis = -1;
+			for (SourceComponent comp : comps) {
+				if (comp.getType() == SourceComponent.Type.BUTTON) {
+					maxButton = Math.max(maxButton, comp.getId());
+				}
+				else {
+					maxAxis = Math.max(maxAxis, comp.getId());
+				}
+			}
+
+			buttons = new Mapping[maxButton + 1];
+			axes = new Mapping[(maxAxis + 1) * 2];
+
+			for (SourceComponent comp : comps) {
+				Mapping mapping = source.get(comp);
+
+				// GamepadMapping.getMapping() returns the first source it finds for a component
+				if (!reverse.containsKey(mapping.padComp)) {
+					reverse.put(mapping.padComp, comp);
+				}
+
+				if (comp.getId() < 0) {
+					continue;
+				}
+
+				if (comp.getType() == SourceComponent.Type.BUTTON) {
+					buttons[comp.getId()] = mapping;
+				}
+				else {
+					axes[axisIndex(comp.getId(), comp.getDirection() != Direction.NEGATIVE)] = mapping;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compiles the given mapping
+	 * @param source the mapping to compile
+	 * @return the compiled mapping
+	 */
+	public static CompiledGamepadMapping compile(GamepadMapping source) {
+		return new CompiledGamepadMapping(source);
+	}
+
+	/**
+	 * Checks whether the source mapping changed since this was compiled
+	 * @return true if this mapping should be recompiled
+	 */
+	public boolean isStale() {
+		return source.getModificationCount() != sourceModificationCount;
+	}
+
+	/**
+	 * Gets the mapping this was compiled from
+	 * @return the source mapping
+	 */
+	public GamepadMapping getSource() {
+		return source;
+	}
+
+	private static int axisIndex(int axisId, boolean positive) {
+		return (axisId * 2) + (positive ? 0 : 1);
+	}
+
+	/**
+	 * Gets the mapping for a button
+	 * @param buttonId the button ID reported by the device
+	 * @return the mapping or null if the button isn't mapped
+	 */
+	public Mapping getButton(int buttonId) {
+		if (buttonId < 0 || buttonId >= buttons.length) {
+			return null;
+		}
+		return buttons[buttonId];
+	}
+
+	/**
+	 * Gets the mapping for one direction of an axis
+	 * @param axisId the axis ID reported by the device
+	 * @param positive true for the positive direction of the axis
+	 * @return the mapping or null if this direction of the axis isn't mapped
+	 */
+	public Mapping getAxis(int axisId, boolean positive) {
+		int index = axisIndex(axisId, positive);
+		if (axisId < 0 || index >= axes.length) {
+			return null;
+		}
+		return axes[index];
+	}
+
+	/**
+	 * Gets the source that is mapped to a gamepad component
+	 * @param padComp the gamepad component
+	 * @return the source component or null if nothing is mapped to it
+	 */
+	public SourceComponent getMapping(GamepadComponent padComp) {
+		return reverse.get(padComp);
+	}
+}
@@ -5,15 +5,16 @@ import java.util.HashMap;
 import com.limelight.LimeLog;
 import com.limelight.input.Device;
 import com.limelight.input.DeviceListener;
+import com.limelight.input.InputDispatcher;
+import com.limelight.input.InputRecorder;
 import com.limelight.input.gamepad.GamepadMapping.Mapping;
-import com.limelight.input.gamepad.SourceComponent.Direction;
-import com.limelight.input.gamepad.SourceComponent.Type;
-import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.input.ControllerPacket;
 import com.limelight.settings.GamepadSettingsManager;
 
 /**
  * Represents a gamepad connected to the system
+ * <br>Events normally arrive on the gamepad polling thread, but a replay can inject
+ * them from another thread, so the handler methods are synchronized.
  * @author Diego Waxemberg
  */
 public class GamepadHandler implements DeviceListener {
@@ -21,7 +22,7 @@ public class GamepadHandler implements DeviceListener {
 	private class Gamepad {
 		public short controllerNumber;
 		
-		public GamepadMapping mapping; 
+		public CompiledGamepadMapping mapping; 
 		
 		public short buttonFlags;
 		public byte leftTrigger;
@@ -31,6 +32,13 @@ public class GamepadHandler implements DeviceListener {
 		public short leftStickX;
 		public short leftStickY;
 		
+		// Set when the state changed since the last packet was sent
+		public boolean dirty;
+		public short sentButtonFlags;
+		
+		// Time of the oldest input that hasn't been sent yet
+		public long pendingSince;
+		
 		public void assignControllerNumber() {
 			for (short i = 0; i < 4; i++) {
 				if ((currentControllers & (1 << i)) == 0) {
@@ -51,11 +59,15 @@ public class GamepadHandler implements DeviceListener {
 		}
 	}
 
-	private NvConnection conn;
+	private volatile InputDispatcher conn;
+	private volatile InputRecorder recorder;
 	private HashMap<Device, Gamepad> gamepads = new HashMap<Device, Gamepad>();
 	private int currentControllers;
+	
+	private long stateChanges;
+	private long packetsSent;
 
-	public GamepadHandler(NvConnection conn) {
+	public GamepadHandler(InputDispatcher conn) {
 		this.conn = conn;
 	}
 
@@ -70,7 +82,7 @@ public class GamepadHandler implements DeviceListener {
 		}
 		else if (create) {
 			gamepad = new Gamepad();
-			gamepad.mapping = GamepadSettingsManager.getSettings();
+			gamepad.mapping = CompiledGamepadMapping.compile(GamepadSettingsManager.getSettings());
 			gamepad.assignControllerNumber();
 			gamepads.put(dev, gamepad);
 			return gamepad;
@@ -80,42 +92,66 @@ public class GamepadHandler implements DeviceListener {
 		}
 	}
 
-	public void setConnection(NvConnection conn) {
+	public void setConnection(InputDispatcher conn) {
 		this.conn = conn;
 	}
 
-	public void handleButton(Device device, int buttonId, boolean pressed) {
+	/**
+	 * Records every gamepad event given to this handler from now on
+	 * @param recorder the recorder or null to stop recording
+	 */
+	public void setRecorder(InputRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/*
+	 * Recompiles the gamepad's mapping if it was edited in the gamepad settings
+	 */
+	private static CompiledGamepadMapping getMapping(Gamepad gamepad) {
+		if (gamepad.mapping.isStale()) {
+			gamepad.mapping = CompiledGamepadMapping.compile(gamepad.mapping.getSource());
+		}
+		return gamepad.mapping;
+	}
+
+	public synchronized void handleButton(Device device, int buttonId, boolean pressed, long timestamp) {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.recordGamepadButton(device, buttonId, pressed, timestamp);
+		}
+
 		Gamepad gamepad = getGamepad(device, true);
-		Mapping mapped = gamepad.mapping.get(new SourceComponent(Type.BUTTON, buttonId, null));
+		Mapping mapped = getMapping(gamepad).getButton(buttonId);
 		if (mapped == null) {
 			//LimeLog.info("Unmapped button pressed: " + buttonId);
 			return;
 		}
 
 		if (!mapped.padComp.isAnalog()) {
-			handleDigitalComponent(gamepad, mapped, pressed);
+			handleDigitalComponent(gamepad, mapped, pressed, timestamp);
 		} else {
-			handleAnalogComponent(gamepad, mapped.padComp, sanitizeValue(mapped, pressed));
+			handleAnalogComponent(gamepad, mapped.padComp, sanitizeValue(mapped, pressed), timestamp);
 		}
 
 		//used for debugging
 		//printInfo(device, new SourceComponent(Type.BUTTON, buttonId), mapped.padComp, pressed ? 1F : 0F);
 	}
 
-	public void handleAxis(Device device, int axisId, float newValue, float lastValue) {
-		Direction mappedDir = null;
+	public synchronized void handleAxis(Device device, int axisId, float newValue, float lastValue, long timestamp) {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.recordGamepadAxis(device, axisId, newValue, lastValue, timestamp);
+		}
+
+		boolean positive;
 		if (newValue == 0) {
-			if (lastValue > 0) {
-				mappedDir = Direction.POSITIVE;
-			} else {
-				mappedDir = Direction.NEGATIVE;
-			}
+			positive = lastValue > 0;
 		} else {
-			mappedDir = newValue > 0 ? Direction.POSITIVE : Direction.NEGATIVE;
+			positive = newValue > 0;
 		}
 		
 		Gamepad gamepad = getGamepad(device, true);
-		Mapping mapped = gamepad.mapping.get(new SourceComponent(Type.AXIS, axisId, mappedDir));
+		Mapping mapped = getMapping(gamepad).getAxis(axisId, positive);
 		if (mapped == null) {
 			//LimeLog.info("Unmapped axis moved: " + axisId);
 			return;
@@ -123,13 +159,13 @@ public class GamepadHandler implements DeviceListener {
 		float value = sanitizeValue(mapped, newValue);
 
 		if (mapped.padComp.isAnalog()) {
-			handleAnalogComponent(gamepad, mapped.padComp, value);
+			handleAnalogComponent(gamepad, mapped.padComp, value, timestamp);
 		} else {
-			handleDigitalComponent(gamepad, mapped, (Math.abs(value) > 0.5));
+			handleDigitalComponent(gamepad, mapped, (Math.abs(value) > 0.5), timestamp);
 		}
 
 		//used for debugging
-		//printInfo(device, new SourceComponent(Type.AXIS, axisId, mappedDir), mapped.padComp, newValue);
+		//printInfo(device, new SourceComponent(Type.AXIS, axisId, positive ? Direction.POSITIVE : Direction.NEGATIVE), mapped.padComp, newValue);
 	}
 
 
@@ -152,7 +188,7 @@ public class GamepadHandler implements DeviceListener {
 		return retVal;
 	}
 
-	private void handleAnalogComponent(Gamepad gamepad, GamepadComponent padComp, float value) {
+	private void handleAnalogComponent(Gamepad gamepad, GamepadComponent padComp, float value, long timestamp) {
 		switch (padComp) {
 		case LS_RIGHT:
 			gamepad.leftStickX = (short)(Math.abs(value) * 0x7FFE);
@@ -197,10 +233,12 @@ public class GamepadHandler implements DeviceListener {
 			break;
 		}
 		
-		sendControllerPacket(gamepad);
+		markDirty(gamepad, timestamp);
 	}
 
-	private void handleDigitalComponent(Gamepad gamepad, Mapping mapped, boolean pressed) {
+	private void handleDigitalComponent(Gamepad gamepad, Mapping mapped, boolean pressed, long timestamp) {
+		short buttonsBefore = gamepad.buttonFlags;
+		
 		switch (mapped.padComp) {
 		case BTN_A:
 			toggleButton(gamepad, ControllerPacket.A_FLAG, pressed);
@@ -252,7 +290,50 @@ public class GamepadHandler implements DeviceListener {
 			return;
 		}
 		
-		sendControllerPacket(gamepad);
+		// If a button changes back before its first change was sent, the press
+		// would be lost, so send the intermediate state first
+		short changed = (short)(buttonsBefore ^ gamepad.buttonFlags);
+		short pendingChanges = (short)(buttonsBefore ^ gamepad.sentButtonFlags);
+		if ((changed & pendingChanges) != 0) {
+			short buttonsAfter = gamepad.buttonFlags;
+			gamepad.buttonFlags = buttonsBefore;
+			sendControllerPacket(gamepad);
+			gamepad.buttonFlags = buttonsAfter;
+		}
+		
+		markDirty(gamepad, timestamp);
+	}
+	
+	private void markDirty(Gamepad gamepad, long timestamp) {
+		if (!gamepad.dirty) {
+			gamepad.pendingSince = timestamp;
+		}
+		gamepad.dirty = true;
+		stateChanges++;
+	}
+	
+	/**
+	 * Sends one packet for each controller whose state changed during the last poll
+	 */
+	@Override
+	public synchronized void handlePollComplete() {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.recordGamepadPollComplete(System.nanoTime());
+		}
+
+		for (Gamepad gamepad : gamepads.values()) {
+			if (gamepad.dirty) {
+				sendControllerPacket(gamepad);
+			}
+		}
+	}
+	
+	/**
+	 * Logs how many controller state changes were sent in how many packets
+	 */
+	public synchronized void logSummary() {
+		LimeLog.info("Gamepad input: "+stateChanges+" state changes sent in "+packetsSent+" packets");
 	}
 
 	/*
@@ -261,8 +342,12 @@ public class GamepadHandler implements DeviceListener {
 	private void sendControllerPacket(Gamepad gamepad) {
 		if (conn != null) {
 			conn.sendControllerInput(gamepad.controllerNumber, gamepad.buttonFlags, gamepad.leftTrigger, gamepad.rightTrigger, 
-					gamepad.leftStickX, gamepad.leftStickY, gamepad.rightStickX, gamepad.rightStickY);
+					gamepad.leftStickX, gamepad.leftStickY, gamepad.rightStickX, gamepad.rightStickY,
+					gamepad.dirty ? gamepad.pendingSince : System.nanoTime());
+			packetsSent++;
 		}
+		gamepad.sentButtonFlags = gamepad.buttonFlags;
+		gamepad.dirty = false;
 	}
 
 	/*
@@ -294,13 +379,23 @@ public class GamepadHandler implements DeviceListener {
 	}
 
 	@Override
-	public void handleDeviceAdded(Device device) {
+	public synchronized void handleDeviceAdded(Device device) {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.recordGamepadAdded(device, System.nanoTime());
+		}
+
 		// Causes the creation of the gamepad object
 		getGamepad(device, true);
 	}
 
 	@Override
-	public void handleDeviceRemoved(Device device) {
+	public synchronized void handleDeviceRemoved(Device device) {
+		InputRecorder recorder = this.recorder;
+		if (recorder != null) {
+			recorder.recordGamepadRemoved(device, System.nanoTime());
+		}
+
 		Gamepad gamepad = getGamepad(device, false);
 		if (gamepad != null) {
 			gamepad.releaseControllerNumber();
@@ -1,9 +1,9 @@
 package com.limelight.input.gamepad;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.limelight.input.Device;
 import com.limelight.input.DeviceListener;
@@ -13,12 +13,16 @@ import com.limelight.input.DeviceListener;
  * @author Diego Waxemberg
  */
 public class GamepadListener implements NativeGamepadListener {
-	private HashMap<Integer, Device> devices;
-	private List<DeviceListener> listeners;
+	// Indexed by device ID. Replaced rather than modified, so the polling thread
+	// can read it without locking while devices come and go.
+	private volatile Device[] devices;
+	private int deviceCount;
+	
+	private CopyOnWriteArrayList<DeviceListener> listeners;
 	
 	private static GamepadListener singleton;
 	
-	public static GamepadListener getInstance() {
+	public static synchronized GamepadListener getInstance() {
 		if (singleton == null) {
 			singleton = new GamepadListener();
 		}
@@ -26,12 +30,12 @@ public class GamepadListener implements NativeGamepadListener {
 	}
 	
 	private GamepadListener() {
-		devices = new HashMap<Integer, Device>();
-		listeners = new LinkedList<DeviceListener>();
+		devices = new Device[0];
+		listeners = new CopyOnWriteArrayList<DeviceListener>();
 	}
 	
-	public int deviceCount() {
-		return devices.size();
+	public synchronized int deviceCount() {
+		return deviceCount;
 	}
 	
 	public void addDeviceListener(DeviceListener listener) {
@@ -46,10 +50,42 @@ public class GamepadListener implements NativeGamepadListener {
 		listeners.remove(listener);
 	}
 	
+	private Device getDevice(int deviceId) {
+		Device[] table = devices;
+		if (deviceId < 0 || deviceId >= table.length) {
+			return null;
+		}
+		return table[deviceId];
+	}
+	
+	/*
+	 * Publishes a copy of the device table with the given entry replaced
+	 */
+	private synchronized void setDevice(int deviceId, Device dev) {
+		Device[] table = devices;
+		Device[] newTable = Arrays.copyOf(table, Math.max(table.length, deviceId + 1));
+		
+		if (table.length <= deviceId || table[deviceId] == null) {
+			if (dev != null) {
+				deviceCount++;
+			}
+		}
+		else if (dev == null) {
+			deviceCount--;
+		}
+		
+		newTable[deviceId] = dev;
+		devices = newTable;
+	}
+	
 	public void deviceAttached(int deviceId, int numButtons, int numAxes) {
+		if (deviceId < 0) {
+			return;
+		}
+		
 		Device dev = new Device(deviceId, numButtons, numAxes);
 		
-		devices.put(deviceId, dev);
+		setDevice(deviceId, dev);
 		
 		for (DeviceListener listener : listeners) {
 			listener.handleDeviceAdded(dev);
@@ -57,7 +93,7 @@ public class GamepadListener implements NativeGamepadListener {
 	}
 
 	public void deviceRemoved(int deviceId) {
-		Device dev = devices.get(deviceId);
+		Device dev = getDevice(deviceId);
 		if (dev == null) {
 			return;
 		}
@@ -66,27 +102,33 @@ public class GamepadListener implements NativeGamepadListener {
 			listener.handleDeviceRemoved(dev);
 		}
 		
-		devices.remove(deviceId);
+		setDevice(deviceId, null);
+	}
+
+	public void buttonDown(int deviceId, int buttonId, long timestamp) {
+		Device dev = getDevice(deviceId);
+		for (DeviceListener listener : listeners) {
+			listener.handleButton(dev, buttonId, true, timestamp);
+		}
 	}
 
-	public void buttonDown(int deviceId, int buttonId) {
-		Device dev = devices.get(deviceId);
+	public void buttonUp(int deviceId, int buttonId, long timestamp) {
+		Device dev = getDevice(deviceId);
 		for (DeviceListener listener : listeners) {
-			listener.handleButton(dev, buttonId, true);
+			listener.handleButton(dev, buttonId, false, timestamp);
 		}
 	}
 
-	public void buttonUp(int deviceId, int buttonId) {
-		Device dev = devices.get(deviceId);
+	public void axisMoved(int deviceId, int axisId, float value, float lastValue, long timestamp) {
+		Device dev = getDevice(deviceId);
 		for (DeviceListener listener : listeners) {
-			listener.handleButton(dev, buttonId, false);
+			listener.handleAxis(dev, axisId, value, lastValue, timestamp);
 		}
 	}
 
-	public void axisMoved(int deviceId, int axisId, float value, float lastValue) {
-		Device dev = devices.get(deviceId);
+	public void pollComplete() {
 		for (DeviceListener listener : listeners) {
-			listener.handleAxis(dev, axisId, value, lastValue);
+			listener.handlePollComplete();
 		}
 	}
 
@@ -2,19 +2,26 @@ package com.limelight.input.gamepad;
 
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import com.limelight.input.gamepad.SourceComponent.Direction;
 import com.limelight.input.gamepad.SourceComponent.Type;
 
 /**
  * Mappings for gamepad components
+ * <br>The settings window edits a mapping on the EDT while the gamepad polling thread
+ * compiles it, so access to the map is synchronized on the mapping.
  * @author Diego Waxemberg
  */
 public class GamepadMapping implements Serializable {
 	private static final long serialVersionUID = -185035113915743149L;
 	
 	private HashMap<SourceComponent, Mapping> mapping;
+	
+	// Lets compiled copies of this mapping notice edits
+	private transient volatile int modificationCount;
 
 	/**
 	 * Constructs a new mapping that has nothing mapped.
@@ -28,8 +35,9 @@ public class GamepadMapping implements Serializable {
 	 * @param toMap a <code>Mapping</code> that will be mapped to the specified gamepad component
 	 * @param comp the gamepad component to map to.
 	 */
-	public void insertMapping(Mapping toMap, SourceComponent comp) {
+	public synchronized void insertMapping(Mapping toMap, SourceComponent comp) {
 		mapping.put(comp, toMap);
+		modificationCount++;
 	}
 	
 	/**
@@ -37,7 +45,7 @@ public class GamepadMapping implements Serializable {
 	 * @param comp the gamepad component to get a mapping for
 	 * @return a mapping for the requested component
 	 */
-	public Mapping get(SourceComponent comp) {
+	public synchronized Mapping get(SourceComponent comp) {
 		return mapping.get(comp);
 	}
 	
@@ -45,8 +53,25 @@ public class GamepadMapping implements Serializable {
 	 * Removes the mapping to the specified component
 	 * @param comp the component to no longer be mapped.
 	 */
-	public void remove(SourceComponent comp) {
+	public synchronized void remove(SourceComponent comp) {
 		mapping.remove(comp);
+		modificationCount++;
+	}
+	
+	/**
+	 * Gets every component that has a mapping
+	 * @return a copy of the mapped source components in the map's iteration order
+	 */
+	public synchronized Set<SourceComponent> getSourceComponents() {
+		return new LinkedHashSet<SourceComponent>(mapping.keySet());
+	}
+	
+	/**
+	 * Gets a counter that changes whenever a mapping is inserted or removed
+	 * @return the modification count
+	 */
+	public int getModificationCount() {
+		return modificationCount;
 	}
 	
 	/**
@@ -55,7 +80,7 @@ public class GamepadMapping implements Serializable {
 	 * @param padComp the component to get a mapping for
 	 * @return a mapping or an null if there is none
 	 */
-	public Mapping get(GamepadComponent padComp) {
+	public synchronized Mapping get(GamepadComponent padComp) {
 		//#allTheJank
 		for (Entry<SourceComponent, Mapping> entry : mapping.entrySet()) {
 			if (entry.getValue().padComp == padComp) {
@@ -71,7 +96,7 @@ public class GamepadMapping implements Serializable {
 	 * @param padComp the component to get a mapping for
 	 * @return a mapping or an empty string if there is none
 	 */
-	public SourceComponent getMapping(GamepadComponent padComp) {
+	public synchronized SourceComponent getMapping(GamepadComponent padComp) {
 		for (Entry<SourceComponent, Mapping> entry : mapping.entrySet()) {
 			if (entry.getValue().padComp == padComp) {
 				return entry.getKey();
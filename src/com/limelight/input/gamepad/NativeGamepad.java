@@ -1,23 +1,67 @@
 package com.limelight.input.gamepad;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
 
 import com.limelight.LimeLog;
+import com.limelight.input.InputClock;
+import com.limelight.stats.LatencyHistogram;
 
 public class NativeGamepad {
-	public static final int DEFAULT_DEVICE_POLLING_ITERATIONS = 100;
+	public static final int DEFAULT_DEVICE_POLLING_INTERVAL = 2000;
 	public static final int DEFAULT_EVENT_POLLING_INTERVAL = 20;
+	public static final int ACTIVE_EVENT_POLLING_INTERVAL = 1;
 	
-	private static ArrayList<NativeGamepadListener> listenerList =
-			new ArrayList<NativeGamepadListener>();
+	// How long we keep polling at the active rate after the last event
+	private static final long ACTIVE_HOLD_NS = 500 * 1000000L;
+	
+	// Iterated on the polling thread while listeners are added and removed from others
+	private static CopyOnWriteArrayList<NativeGamepadListener> listenerList =
+			new CopyOnWriteArrayList<NativeGamepadListener>();
 	private static boolean running = false;
 	private static boolean initialized = false;
 	private static Thread pollingThread = null;
-	private static int devicePollingIterations = DEFAULT_DEVICE_POLLING_ITERATIONS;
+	private static int devicePollingIntervalMs = DEFAULT_DEVICE_POLLING_INTERVAL;
 	private static int pollingIntervalMs = DEFAULT_EVENT_POLLING_INTERVAL;
+	
+	// Only touched by the polling thread
+	private static int eventsThisPoll;
+	private static int timestampedEventsThisPoll;
+	
+	private static final LatencyHistogram pollInterval = new LatencyHistogram("Gamepad poll interval", 100, 1000);
+	private static final LatencyHistogram eventAge = new LatencyHistogram("Gamepad event age", 100, 1000);
+
+	// Layout of a batched event, which must match struct BatchedEvent in gamepad_jni.c
+	private static final int EVENT_SIZE = 32;
+	private static final int EVENT_DEVICE_ATTACHED = 0;
+	private static final int EVENT_DEVICE_REMOVED = 1;
+	private static final int EVENT_BUTTON_DOWN = 2;
+	private static final int EVENT_BUTTON_UP = 3;
+	private static final int EVENT_AXIS_MOVED = 4;
+	private static final int BATCH_CAPACITY = 128;
+	
+	// Null if the native library only supports per-event callbacks
+	private static ByteBuffer eventBuffer;
+	
+	// Aligns the native library's event timestamps with System.nanoTime()
+	private static final InputClock nativeClock = new InputClock();
 
 	static {
 		System.loadLibrary("gamepad_jni");
+		
+		ByteBuffer buffer = ByteBuffer.allocateDirect(EVENT_SIZE * BATCH_CAPACITY).order(ByteOrder.nativeOrder());
+		try {
+			if (registerEventBuffer(buffer) == EVENT_SIZE) {
+				eventBuffer = buffer;
+			}
+			else {
+				LimeLog.severe("Gamepad event layout doesn't match the native library");
+			}
+		} catch (UnsatisfiedLinkError e) {
+			LimeLog.info("Native gamepad library can't batch events; using per-event callbacks");
+		}
 	}
 	
 	private static native void init();
@@ -25,6 +69,9 @@ public class NativeGamepad {
 	private static native int numDevices();
 	private static native void detectDevices();
 	private static native void processEvents();
+	private static native int registerEventBuffer(ByteBuffer buffer);
+	private static native int processEventsBatched();
+	private static native int deliverSyntheticEvents(int events, boolean batched);
 	
 	public static void addListener(NativeGamepadListener listener) {
 		listenerList.add(listener);
@@ -38,14 +85,19 @@ public class NativeGamepad {
 		return running;
 	}
 	
-	public static void setDevicePollingIterations(int iterations) {
-		devicePollingIterations = iterations;
+	public static void setDevicePollingInterval(int interval) {
+		devicePollingIntervalMs = interval;
 	}
 	
-	public static int getDevicePollingIterations() {
-		return devicePollingIterations;
+	public static int getDevicePollingInterval() {
+		return devicePollingIntervalMs;
 	}
 	
+	/**
+	 * Sets the slowest rate that events are polled at while no input is changing.
+	 * Events are polled every millisecond while input is active.
+	 * @param interval the idle polling interval in milliseconds
+	 */
 	public static void setPollingInterval(int interval) {
 		pollingIntervalMs = interval;
 	}
@@ -87,11 +139,34 @@ public class NativeGamepad {
 		return NativeGamepad.numDevices();
 	}
 	
+	/**
+	 * Gets the histogram of time between two event polls
+	 * @return the poll interval histogram
+	 */
+	public static LatencyHistogram getPollIntervalHistogram() {
+		return pollInterval;
+	}
+	
+	/**
+	 * Gets the histogram of how long events waited before being polled.
+	 * <br>Batched events carry the native library's timestamp, so their age is the time from
+	 * that timestamp to the poll that delivered them. Per-event callbacks aren't timestamped,
+	 * so a poll that only delivers those records the time since the previous poll as an upper
+	 * bound on their age instead.
+	 * @return the event age histogram
+	 */
+	public static LatencyHistogram getEventAgeHistogram() {
+		return eventAge;
+	}
+	
 	private static void startPolling() {
 		pollingThread = new Thread() {
 			@Override
 			public void run() {
-				int iterations = 0;
+				long lastDetectTime = 0;
+				long lastPollTime = 0;
+				long lastEventTime = 0;
+				long intervalNs = pollingIntervalMs * 1000000L;
 				
 				if (!initialized) {
 					NativeGamepad.init();
@@ -99,31 +174,50 @@ public class NativeGamepad {
 				}
 				
 				while (!isInterrupted()) {
-					// If we have no devices, we don't bother with the event
-					// polling interval. We just run the device polling interval.
-					if (getDeviceCount() == 0) {
+					long now = System.nanoTime();
+					
+					// Device detection runs on its own schedule regardless of the event rate
+					if (lastDetectTime == 0 || now - lastDetectTime >= devicePollingIntervalMs * 1000000L) {
 						NativeGamepad.detectDevices();
-						NativeGamepad.processEvents();
-						
-						try {
-							Thread.sleep(pollingIntervalMs * devicePollingIterations);
-						} catch (InterruptedException e) {
-							return;
-						}
+						lastDetectTime = now;
+					}
+					
+					if (getDeviceCount() == 0) {
+						// If we have no devices, we just wait for the next device poll
+						pollEvents();
+						lastPollTime = 0;
+						intervalNs = devicePollingIntervalMs * 1000000L;
 					}
 					else {
-						if ((iterations++ % devicePollingIterations) == 0) {
-							NativeGamepad.detectDevices();
+						eventsThisPoll = 0;
+						timestampedEventsThisPoll = 0;
+						pollEvents();
+						now = System.nanoTime();
+						
+						if (lastPollTime != 0) {
+							pollInterval.recordNanos(now - lastPollTime);
 						}
 						
-						NativeGamepad.processEvents();
+						if (eventsThisPoll > 0) {
+							pollCompleteCallback();
+							if (lastPollTime != 0 && timestampedEventsThisPoll == 0) {
+								eventAge.recordNanos(now - lastPollTime);
+							}
+							lastEventTime = now;
+						}
+						lastPollTime = now;
 						
-						try {
-							Thread.sleep(pollingIntervalMs);
-						} catch (InterruptedException e) {
-							return;
+						// Poll quickly while input is changing and back off
+						// exponentially to the idle interval once it stops
+						if (now - lastEventTime < ACTIVE_HOLD_NS) {
+							intervalNs = ACTIVE_EVENT_POLLING_INTERVAL * 1000000L;
+						}
+						else {
+							intervalNs = Math.min(intervalNs * 2, pollingIntervalMs * 1000000L);
 						}
 					}
+						
+					LockSupport.parkNanos(intervalNs);
 				}
 			}
 		};
@@ -131,6 +225,93 @@ public class NativeGamepad {
 		pollingThread.start();
 	}
 	
+	/*
+	 * Processes events using the batch buffer if the native library supports it
+	 */
+	private static void pollEvents() {
+		if (eventBuffer != null) {
+			dispatchEvents(processEventsBatched());
+		}
+		else {
+			NativeGamepad.processEvents();
+		}
+	}
+	
+	/*
+	 * Decodes events from the batch buffer and delivers them to the listeners
+	 */
+	private static void dispatchEvents(int count) {
+		long receiveTime = System.nanoTime();
+		
+		for (int i = 0; i < count; i++) {
+			int base = i * EVENT_SIZE;
+			int deviceId = eventBuffer.getInt(base + 4);
+			int id = eventBuffer.getInt(base + 8);
+			double nativeTime = eventBuffer.getDouble(base + 24);
+			long timestamp = nativeTime > 0 ? nativeClock.fromSourceClock(nativeTime, receiveTime) : receiveTime;
+			int type = eventBuffer.getInt(base);
+			
+			if (nativeTime > 0 && type >= EVENT_BUTTON_DOWN) {
+				eventAge.recordNanos(receiveTime - timestamp);
+				timestampedEventsThisPoll++;
+			}
+			
+			switch (type) {
+			case EVENT_DEVICE_ATTACHED:
+				deviceAttachCallback(deviceId, id, eventBuffer.getInt(base + 12));
+				break;
+			case EVENT_DEVICE_REMOVED:
+				deviceRemoveCallback(deviceId);
+				break;
+			case EVENT_BUTTON_DOWN:
+				deliverButtonDown(deviceId, id, timestamp);
+				break;
+			case EVENT_BUTTON_UP:
+				deliverButtonUp(deviceId, id, timestamp);
+				break;
+			case EVENT_AXIS_MOVED:
+				deliverAxisMoved(deviceId, id, eventBuffer.getFloat(base + 16), eventBuffer.getFloat(base + 20), timestamp);
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Compares the cost of delivering events with one upcall per event against
+	 * delivering them through the batch buffer. Synthetic events are not passed to listeners.
+	 * @param events the number of events to deliver in each run
+	 */
+	public static void benchmarkDelivery(int events) {
+		if (running) {
+			throw new IllegalStateException("Cannot benchmark running NativeGamepad");
+		}
+		if (eventBuffer == null) {
+			LimeLog.warning("Native gamepad library can't batch events; nothing to compare");
+			return;
+		}
+		
+		long upcallNs = 0, batchedNs = 0;
+		
+		// The first rounds warm up the JIT
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			deliverSyntheticEvents(events, false);
+			long upcallTime = System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			dispatchEvents(deliverSyntheticEvents(events, true));
+			long batchedTime = System.nanoTime() - start;
+			
+			if (round >= 2) {
+				upcallNs += upcallTime;
+				batchedNs += batchedTime;
+			}
+		}
+		
+		LimeLog.info(String.format("Gamepad event delivery: per-event upcalls %.1f ns/event, batched %.1f ns/event",
+				upcallNs / (3.0 * events), batchedNs / (3.0 * events)));
+	}
+	
 	private static void stopPolling() {
 		if (pollingThread != null) {
 			pollingThread.interrupt();
@@ -148,6 +329,16 @@ public class NativeGamepad {
 		}
 	}
 	
+	public static void pollCompleteCallback() {
+		for (NativeGamepadListener listener : listenerList) {
+			listener.pollComplete();
+		}
+	}
+	
+	public static void flushEventsCallback(int count) {
+		dispatchEvents(count);
+	}
+	
 	public static void deviceRemoveCallback(int deviceId) {
 		LimeLog.info(deviceId + " has detached.");
 		for (NativeGamepadListener listener : listenerList) {
@@ -155,21 +346,44 @@ public class NativeGamepad {
 		}
 	}
 	
+	// Per-event upcalls don't carry the native timestamp, so these use the delivery time
+	
 	public static void buttonUpCallback(int deviceId, int buttonId) {
+		deliverButtonUp(deviceId, buttonId, System.nanoTime());
+	}
+	
+	public static void buttonDownCallback(int deviceId, int buttonId) {
+		deliverButtonDown(deviceId, buttonId, System.nanoTime());
+	}
+	
+	public static void axisMovedCallback(int deviceId, int axisId, float value, float lastValue) {
+		deliverAxisMoved(deviceId, axisId, value, lastValue, System.nanoTime());
+	}
+	
+	private static void deliverButtonUp(int deviceId, int buttonId, long timestamp) {
+		eventsThisPoll++;
 		for (NativeGamepadListener listener : listenerList) {
-			listener.buttonUp(deviceId, buttonId);
+			listener.buttonUp(deviceId, buttonId, timestamp);
 		}
 	}
 	
-	public static void buttonDownCallback(int deviceId, int buttonId) {
+	private static void deliverButtonDown(int deviceId, int buttonId, long timestamp) {
+		eventsThisPoll++;
 		for (NativeGamepadListener listener : listenerList) {
-			listener.buttonDown(deviceId, buttonId);
+			listener.buttonDown(deviceId, buttonId, timestamp);
 		}
 	}
 	
-	public static void axisMovedCallback(int deviceId, int axisId, float value, float lastValue) {
+	private static void deliverAxisMoved(int deviceId, int axisId, float value, float lastValue, long timestamp) {
+		eventsThisPoll++;
+		
+		// Synthetic benchmark events don't belong to a device
+		if (deviceId < 0) {
+			return;
+		}
+		
 		for (NativeGamepadListener listener : listenerList) {
-			listener.axisMoved(deviceId, axisId, value, lastValue);
+			listener.axisMoved(deviceId, axisId, value, lastValue, timestamp);
 		}
 	}
 }
@@ -1,13 +1,22 @@
 package com.limelight.input.gamepad;
 
+/**
+ * Receives events from the native gamepad library. Timestamps are the time the
+ * input happened on the <code>System.nanoTime()</code> clock.
+ */
 public interface NativeGamepadListener {
 	public void deviceAttached(int deviceId, int numButtons, int numAxes);
 	
 	public void deviceRemoved(int deviceId);
 	
-	public void buttonDown(int deviceId, int buttonId);
+	public void buttonDown(int deviceId, int buttonId, long timestamp);
 	
-	public void buttonUp(int deviceId, int buttonId);
+	public void buttonUp(int deviceId, int buttonId, long timestamp);
 	
-	public void axisMoved(int deviceId, int axisId, float value, float lastValue);
+	public void axisMoved(int deviceId, int axisId, float value, float lastValue, long timestamp);
+	
+	/**
+	 * Called after all events from one poll have been delivered
+	 */
+	public void pollComplete();
 }
@@ -0,0 +1,199 @@
+package com.limelight.settings;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.limelight.LimeLog;
+import com.limelight.nvstream.http.NvApp;
+
+/**
+ * Caches the app list of each host on disk so it can be shown before the host answers.
+ * <br>Lists are stored per host unique ID in a compact binary form: a header, the time
+ * the list was saved, then the ID and name of each app. Whether an app is running is
+ * not cached, since it is usually stale by the next start. A small index maps the
+ * address the user typed to the unique ID of the host last seen there.
+ */
+public class AppListCache {
+	private static final int MAGIC = 0x4C415050; // "LAPP"
+	private static final int VERSION = 2;
+
+	private static final File CACHE_DIR = new File(SettingsManager.SETTINGS_DIR + File.separator + "appcache");
+	private static final File INDEX_FILE = new File(CACHE_DIR, "hosts.idx");
+
+	private static Map<String, String> hostIndex;
+
+	/**
+	 * Gets the last app list saved for a host
+	 * @param host the address of the host
+	 * @return the cached apps or null if there are none
+	 */
+	public static synchronized LinkedList<NvApp> getAppList(String host) {
+		String uniqueId = getHostIndex().get(host);
+		if (uniqueId == null) {
+			return null;
+		}
+
+		File file = getAppListFile(uniqueId);
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+				LimeLog.warning("Ignoring app list cache "+file.getName()+" in an unknown format");
+				return null;
+			}
+
+			long savedTime = in.readLong();
+			int count = in.readInt();
+			LinkedList<NvApp> apps = new LinkedList<NvApp>();
+			for (int i = 0; i < count; i++) {
+				int appId = in.readInt();
+				apps.add(new NvApp(in.readUTF(), appId));
+			}
+
+			LimeLog.info("Loaded "+count+" cached apps for "+host+" saved "+
+					(System.currentTimeMillis() - savedTime) / 1000+" s ago");
+			return apps;
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (IOException e) {
+			LimeLog.warning("Unable to read app list cache "+file.getName()+": "+e.getMessage());
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Saves a host's app list, replacing anything cached for it
+	 * @param host the address of the host
+	 * @param hostId the host's unique ID
+	 * @param apps the apps on the host
+	 */
+	public static synchronized void putAppList(String host, UUID hostId, List<NvApp> apps) {
+		String uniqueId = hostId.toString();
+
+		CACHE_DIR.mkdirs();
+		File file = getAppListFile(uniqueId);
+		File tempFile = new File(CACHE_DIR, uniqueId + ".tmp");
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeInt(apps.size());
+			for (NvApp app : apps) {
+				out.writeInt(app.getAppId());
+				out.writeUTF(app.getAppName() != null ? app.getAppName() : "");
+			}
+			out.close();
+			out = null;
+
+			replaceFile(tempFile, file);
+		} catch (IOException e) {
+			LimeLog.warning("Unable to write app list cache "+file.getName()+": "+e.getMessage());
+			return;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+			}
+			tempFile.delete();
+		}
+
+		if (!uniqueId.equals(getHostIndex().put(host, uniqueId))) {
+			writeHostIndex();
+		}
+	}
+
+	/*
+	 * Replaces the target in one step so a reader never sees half a file
+	 */
+	private static void replaceFile(File tempFile, File file) throws IOException {
+		if (!tempFile.renameTo(file) && (!file.delete() || !tempFile.renameTo(file))) {
+			throw new IOException("unable to replace "+file.getName());
+		}
+	}
+
+	private static File getAppListFile(String uniqueId) {
+		return new File(CACHE_DIR, uniqueId + ".apps");
+	}
+
+	private static Map<String, String> getHostIndex() {
+		if (hostIndex != null) {
+			return hostIndex;
+		}
+
+		hostIndex = new HashMap<String, String>();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(INDEX_FILE)));
+			if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+				return hostIndex;
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				hostIndex.put(in.readUTF(), in.readUTF());
+			}
+		} catch (FileNotFoundException e) {
+			// Nothing cached yet
+		} catch (IOException e) {
+			LimeLog.warning("Unable to read app list cache index: "+e.getMessage());
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {}
+			}
+		}
+		return hostIndex;
+	}
+
+	private static void writeHostIndex() {
+		File tempFile = new File(CACHE_DIR, INDEX_FILE.getName() + ".tmp");
+
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(hostIndex.size());
+			for (Map.Entry<String, String> entry : hostIndex.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue());
+			}
+			out.close();
+			out = null;
+
+			replaceFile(tempFile, INDEX_FILE);
+		} catch (IOException e) {
+			LimeLog.warning("Unable to write app list cache index: "+e.getMessage());
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {}
+			}
+			tempFile.delete();
+		}
+	}
+}
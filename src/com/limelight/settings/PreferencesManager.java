@@ -60,6 +60,11 @@ public abstract class PreferencesManager {
 	public static class Preferences implements Serializable {
 		private static final long serialVersionUID = -5575445156207845705L;
 
+		/**
+		 * How often accumulated mouse motion is sent by default, in milliseconds
+		 */
+		public static final int DEFAULT_MOUSE_TICK_MS = 4;
+
 		/**
 		 * The possible resolutions for the stream
 		 */
@@ -107,6 +112,9 @@ public abstract class PreferencesManager {
 		private boolean localAudio;
 		private boolean allowResolutionChange;
 		private boolean keepAspectRatio;
+		private int mouseTickMs;
+		private String rawMouseDevice;
+		private String scanRanges;
 
 		/**
 		 * constructs default preferences: 720p 60Hz
@@ -132,6 +140,7 @@ public abstract class PreferencesManager {
 			this.localAudio = false;
 			this.allowResolutionChange = true;
 			this.keepAspectRatio = true;
+			this.mouseTickMs = DEFAULT_MOUSE_TICK_MS;
 		}
 
 		/**
@@ -244,6 +253,54 @@ public abstract class PreferencesManager {
 			this.keepAspectRatio = keepAspectRatio;
 		}
 		
+		/**
+		 * Gets how often accumulated mouse motion is sent to the host
+		 * @return the interval in milliseconds, 0 if every motion event is sent
+		 */
+		public int getMouseTickMs() {
+			return mouseTickMs;
+		}
+
+		/**
+		 * Sets how often accumulated mouse motion is sent to the host
+		 * @param mouseTickMs the interval in milliseconds, 0 to send every motion event
+		 */
+		public void setMouseTickMs(int mouseTickMs) {
+			this.mouseTickMs = mouseTickMs;
+		}
+		
+		/**
+		 * Gets the Linux evdev device that raw mouse motion is read from
+		 * @return the device path, "auto", or null to use AWT mouse events
+		 */
+		public String getRawMouseDevice() {
+			return rawMouseDevice;
+		}
+
+		/**
+		 * Sets the Linux evdev device that raw mouse motion is read from
+		 * @param rawMouseDevice the device path, "auto" to find one, or null to use AWT mouse events
+		 */
+		public void setRawMouseDevice(String rawMouseDevice) {
+			this.rawMouseDevice = rawMouseDevice;
+		}
+		
+		/**
+		 * Gets the networks that are scanned for hosts in addition to mDNS discovery
+		 * @return IPv4 ranges in CIDR notation separated by commas, or null if no networks are scanned
+		 */
+		public String getScanRanges() {
+			return scanRanges;
+		}
+
+		/**
+		 * Sets the networks that are scanned for hosts in addition to mDNS discovery
+		 * @param scanRanges IPv4 ranges in CIDR notation separated by commas, or null to not scan
+		 */
+		public void setScanRanges(String scanRanges) {
+			this.scanRanges = scanRanges;
+		}
+		
 		
 	}
 }
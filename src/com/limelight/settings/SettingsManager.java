@@ -22,6 +22,7 @@ public class SettingsManager {
 	
 	private File settingsFile;
 	private File gamepadFile;
+	private File hostsFile;
 	
 	private static SettingsManager manager;
 	
@@ -31,6 +32,7 @@ public class SettingsManager {
 	private SettingsManager() {
 		settingsFile = new File(SETTINGS_DIR + File.separator + "settings.json");
 		gamepadFile = new File(SETTINGS_DIR + File.separator + "gamepad.json");
+		hostsFile = new File(SETTINGS_DIR + File.separator + "hosts.json");
 		settingsDir = new File(SETTINGS_DIR);
 	}
 	
@@ -38,7 +40,7 @@ public class SettingsManager {
 	 * Gets an instance of the manager, this is a singleton
 	 * @return the instance of the manager
 	 */
-	public static SettingsManager getInstance() {
+	public static synchronized SettingsManager getInstance() {
 		if (manager == null) {
 			manager = new SettingsManager();
 		}
@@ -87,6 +89,27 @@ public class SettingsManager {
 		return settingsFile;
 	}
 	
+	/**
+	 * Gets the file holding the directory of known hosts, if the file does not exist, it is created first
+	 * @return the hosts file
+	 */
+	public File getHostsFile() {
+		if (!settingsDir.exists()) {
+			settingsDir.mkdirs();
+		}
+		
+		if (!hostsFile.exists()) {
+			try {
+				hostsFile.createNewFile();
+			} catch (IOException e) {
+				LimeLog.warning("Unable to create hosts file");
+				return null;
+			}
+		}
+		
+		return hostsFile;
+	}
+	
 	/**
 	 * Reads the specified file as a settings file and returns the result.
 	 * <br>A settings file must be a java serialized object
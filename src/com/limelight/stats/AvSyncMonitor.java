@@ -0,0 +1,173 @@
+package com.limelight.stats;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.limelight.LimeLog;
+
+/**
+ * Tracks how far audio and video drift apart during a session.
+ * <br>Both streams leave the host at the same time, so the difference between the
+ * client-side latency of audio (arrival to playback) and video (arrival to display)
+ * is the A/V offset the user experiences. All times use the <code>System.nanoTime()</code> clock.
+ * <br>A positive offset means audio is heard after the matching video is shown.
+ * <br>The reference points don't quite match. Video is timed from when the frame's
+ * packets were received, but audio can only be timed from when the decoded frame
+ * reaches the renderer, because the audio stream doesn't pass on receive times. Audio
+ * latency therefore leaves out depacketizing, Opus decoding and, without direct submit,
+ * the audio stream's own queue, so the offset reads low by that much (typically about 1 ms,
+ * more when the audio stream queues frames).
+ */
+public class AvSyncMonitor {
+	public static final int CORRECTION_NONE = 0;
+	public static final int CORRECTION_DROP_AUDIO = -1;
+	public static final int CORRECTION_DELAY_AUDIO = 1;
+
+	// Offsets between -RANGE_MS and +RANGE_MS are tracked at 1 ms resolution
+	private static final int RANGE_MS = 250;
+
+	// Minimum time between two corrections so the offset can settle
+	private static final long CORRECTION_HOLDOFF_NS = 500 * 1000000L;
+
+	private final AtomicIntegerArray offsetBuckets = new AtomicIntegerArray(2 * RANGE_MS + 1);
+	private final AtomicLong offsetSamples = new AtomicLong();
+	private final AtomicLong offsetSumUs = new AtomicLong();
+
+	private volatile long videoLatencyUs = -1;
+	private volatile long lastOffsetUs;
+
+	private int correctionBoundMs;
+	private long lastCorrectionTime;
+	private int audioDrops;
+	private int audioDelays;
+
+	/**
+	 * Records that a video frame is ready to be shown
+	 * @param receiveTimeMs the time the frame was received in milliseconds
+	 * @param presentTimeNs the time the frame became displayable
+	 */
+	public void videoFramePresented(long receiveTimeMs, long presentTimeNs) {
+		long latencyUs = (presentTimeNs / 1000) - (receiveTimeMs * 1000);
+		if (latencyUs < 0) {
+			return;
+		}
+
+		// Smooth over frame-to-frame decoder jitter
+		long previous = videoLatencyUs;
+		if (previous < 0) {
+			videoLatencyUs = latencyUs;
+		}
+		else {
+			videoLatencyUs = previous + (latencyUs - previous) / 8;
+		}
+	}
+
+	/**
+	 * Records when a piece of audio will actually be heard
+	 * @param arrivalTimeNs the time the decoded audio reached the renderer, which is later than
+	 * it was received (see the class comment)
+	 * @param presentTimeNs the time the first sample will leave the speakers
+	 */
+	public void audioFramePresented(long arrivalTimeNs, long presentTimeNs) {
+		long videoLatency = videoLatencyUs;
+		if (videoLatency < 0) {
+			// No video yet so there's nothing to compare with
+			return;
+		}
+
+		long offsetUs = ((presentTimeNs - arrivalTimeNs) / 1000) - videoLatency;
+		lastOffsetUs = offsetUs;
+
+		int bucket = (int) Math.max(-RANGE_MS, Math.min(RANGE_MS, offsetUs / 1000));
+		offsetBuckets.incrementAndGet(bucket + RANGE_MS);
+		offsetSamples.incrementAndGet();
+		offsetSumUs.addAndGet(offsetUs);
+	}
+
+	/**
+	 * Enables nudging the audio buffer to keep the offset in bounds
+	 * @param boundMs the maximum tolerated absolute offset in milliseconds or 0 to disable
+	 */
+	public void setCorrectionBound(int boundMs) {
+		this.correctionBoundMs = boundMs;
+	}
+
+	/**
+	 * Asks whether the audio renderer should adjust its buffering. This should be
+	 * called from the audio thread before each write to the sound line, and acts on the
+	 * offset reported by the last <code>audioFramePresented()</code> call.
+	 * @return one of the <code>CORRECTION_</code> constants
+	 */
+	public int getAudioCorrection() {
+		if (correctionBoundMs <= 0 || offsetSamples.get() == 0) {
+			return CORRECTION_NONE;
+		}
+
+		long now = System.nanoTime();
+		if (now - lastCorrectionTime < CORRECTION_HOLDOFF_NS) {
+			return CORRECTION_NONE;
+		}
+
+		long offsetUs = lastOffsetUs;
+		if (offsetUs > correctionBoundMs * 1000L) {
+			lastCorrectionTime = now;
+			audioDrops++;
+			return CORRECTION_DROP_AUDIO;
+		}
+		else if (offsetUs < -correctionBoundMs * 1000L) {
+			lastCorrectionTime = now;
+			audioDelays++;
+			return CORRECTION_DELAY_AUDIO;
+		}
+
+		return CORRECTION_NONE;
+	}
+
+	/**
+	 * Gets the mean A/V offset
+	 * @return the mean offset in milliseconds, positive if audio lags video
+	 */
+	public int getMeanOffsetMs() {
+		long samples = offsetSamples.get();
+		if (samples == 0) {
+			return 0;
+		}
+		return (int)(offsetSumUs.get() / samples / 1000);
+	}
+
+	/**
+	 * Gets the given percentile of the A/V offset distribution
+	 * @param percentile the percentile between 0 and 100
+	 * @return the offset in milliseconds
+	 */
+	public int getOffsetPercentileMs(double percentile) {
+		long samples = offsetSamples.get();
+		if (samples == 0) {
+			return 0;
+		}
+
+		long threshold = (long) Math.ceil(samples * (percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < offsetBuckets.length(); i++) {
+			seen += offsetBuckets.get(i);
+			if (seen >= threshold) {
+				return i - RANGE_MS;
+			}
+		}
+		return RANGE_MS;
+	}
+
+	/**
+	 * Writes the offset distribution to the log
+	 */
+	public void logSummary() {
+		if (offsetSamples.get() == 0) {
+			LimeLog.info("A/V sync: no samples");
+			return;
+		}
+
+		LimeLog.info(String.format("A/V sync: n=%d mean=%dms p5=%dms p50=%dms p95=%dms (%d audio drops, %d audio delays)",
+				offsetSamples.get(), getMeanOffsetMs(), getOffsetPercentileMs(5),
+				getOffsetPercentileMs(50), getOffsetPercentileMs(95), audioDrops, audioDelays));
+	}
+}
@@ -0,0 +1,132 @@
+package com.limelight.stats;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-bucket latency histogram that is cheap enough to leave enabled all the time.
+ * Samples are recorded in microseconds into linear buckets with a final overflow bucket.
+ * Recording never allocates and is safe to call from any thread.
+ */
+public class LatencyHistogram {
+	private final String name;
+	private final int bucketWidthUs;
+	private final AtomicIntegerArray buckets;
+
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sumUs = new AtomicLong();
+	private final AtomicLong maxUs = new AtomicLong();
+
+	/**
+	 * Creates a new histogram
+	 * @param name the name used when the histogram is printed
+	 * @param bucketWidthUs the width of each bucket in microseconds
+	 * @param bucketCount the number of buckets, the last of which collects every larger sample
+	 */
+	public LatencyHistogram(String name, int bucketWidthUs, int bucketCount) {
+		this.name = name;
+		this.bucketWidthUs = bucketWidthUs;
+		this.buckets = new AtomicIntegerArray(bucketCount);
+	}
+
+	/**
+	 * Records a sample
+	 * @param latencyUs the latency in microseconds. Negative samples are clamped to 0.
+	 */
+	public void record(long latencyUs) {
+		if (latencyUs < 0) {
+			latencyUs = 0;
+		}
+
+		long index = latencyUs / bucketWidthUs;
+		if (index >= buckets.length()) {
+			index = buckets.length() - 1;
+		}
+
+		buckets.incrementAndGet((int) index);
+		count.incrementAndGet();
+		sumUs.addAndGet(latencyUs);
+
+		long max;
+		while (latencyUs > (max = maxUs.get())) {
+			if (maxUs.compareAndSet(max, latencyUs)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Records a sample given in nanoseconds
+	 * @param latencyNs the latency in nanoseconds
+	 */
+	public void recordNanos(long latencyNs) {
+		record(latencyNs / 1000);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getMaxUs() {
+		return maxUs.get();
+	}
+
+	/**
+	 * Gets the mean of every recorded sample
+	 * @return the mean latency in microseconds or 0 if nothing was recorded
+	 */
+	public long getMeanUs() {
+		long samples = count.get();
+		if (samples == 0) {
+			return 0;
+		}
+		return sumUs.get() / samples;
+	}
+
+	/**
+	 * Gets an upper bound for the given percentile. The result has the
+	 * resolution of one bucket and is capped at the recorded maximum.
+	 * @param percentile the percentile between 0 and 100
+	 * @return the latency in microseconds below which the given share of samples fall
+	 */
+	public long getPercentileUs(double percentile) {
+		long samples = count.get();
+		if (samples == 0) {
+			return 0;
+		}
+
+		long threshold = (long) Math.ceil(samples * (percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= threshold) {
+				return Math.min((long)(i + 1) * bucketWidthUs, maxUs.get());
+			}
+		}
+
+		return maxUs.get();
+	}
+
+	/**
+	 * Clears every recorded sample
+	 */
+	public void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sumUs.set(0);
+		maxUs.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+				name, getCount(), getMeanUs() / 1000.0, getPercentileUs(50) / 1000.0,
+				getPercentileUs(95) / 1000.0, getPercentileUs(99) / 1000.0, getMaxUs() / 1000.0);
+	}
+}
@@ -0,0 +1,153 @@
+package com.limelight.stats;
+
+import java.io.File;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.limelight.LimeLog;
+import com.limelight.settings.SettingsManager;
+
+/**
+ * Records when each phase of startup ran and on which thread.
+ * <br>The timeline is logged and saved to <code>startup.json</code> once startup is done.
+ * Phases on different threads can overlap, so comparing the total with the sum of the
+ * top-level phases shows how much running them in parallel saved. A phase begun while
+ * another is running on the same thread is nested in it and not counted in the sum.
+ */
+public class StartupProfiler {
+	/**
+	 * One phase of startup. Times are in microseconds since the profiler was created.
+	 */
+	public static class Phase implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public String name;
+		public String thread;
+		// The phase this one ran inside, or null for a top-level phase
+		public String parent;
+		public long startUs;
+		public long durationUs = -1;
+
+		private transient Thread owner;
+	}
+
+	private static class Report implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		// From JVM start until the profiler was created
+		public long jvmStartupUs;
+		public long totalUs;
+		public long phaseSumUs;
+		public List<Phase> phases;
+	}
+
+	private static final StartupProfiler instance = new StartupProfiler();
+
+	private final long originNs;
+	private final long jvmStartupUs;
+	private final LinkedHashMap<String, Phase> phases = new LinkedHashMap<String, Phase>();
+	private boolean finished;
+
+	private StartupProfiler() {
+		originNs = System.nanoTime();
+
+		long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+		jvmStartupUs = Math.max(0, System.currentTimeMillis() - jvmStartTime) * 1000;
+	}
+
+	/**
+	 * Gets the profiler. It starts timing the first time this is called.
+	 * @return the startup profiler
+	 */
+	public static StartupProfiler getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Marks the start of a phase on the calling thread
+	 * @param name the phase's name
+	 */
+	public synchronized void begin(String name) {
+		if (finished) {
+			return;
+		}
+
+		Phase phase = new Phase();
+		phase.name = name;
+		phase.owner = Thread.currentThread();
+		phase.thread = phase.owner.getName();
+		phase.startUs = (System.nanoTime() - originNs) / 1000;
+
+		// The innermost phase still running on this thread is the parent
+		for (Phase other : phases.values()) {
+			if (other.owner == phase.owner && other.durationUs < 0) {
+				phase.parent = other.name;
+			}
+		}
+		phases.put(name, phase);
+	}
+
+	/**
+	 * Marks the end of a phase
+	 * @param name the phase's name
+	 */
+	public synchronized void end(String name) {
+		Phase phase = phases.get(name);
+		if (finished || phase == null) {
+			return;
+		}
+
+		phase.durationUs = (System.nanoTime() - originNs) / 1000 - phase.startUs;
+	}
+
+	/**
+	 * Marks the end of startup, then logs the timeline and writes it to <code>startup.json</code>.
+	 * Phases that are still running are left out.
+	 */
+	public synchronized void finish() {
+		if (finished) {
+			return;
+		}
+		finished = true;
+
+		Report report = new Report();
+		report.jvmStartupUs = jvmStartupUs;
+		report.totalUs = (System.nanoTime() - originNs) / 1000;
+		report.phases = new ArrayList<Phase>();
+		for (Phase phase : phases.values()) {
+			if (phase.durationUs >= 0) {
+				report.phases.add(phase);
+				if (phase.parent == null) {
+					report.phaseSumUs += phase.durationUs;
+				}
+			}
+		}
+		Collections.sort(report.phases, new Comparator<Phase>() {
+			@Override
+			public int compare(Phase left, Phase right) {
+				return Long.compare(left.startUs, right.startUs);
+			}
+		});
+
+		StringBuilder timeline = new StringBuilder();
+		timeline.append(String.format("Startup timeline (JVM started %.1f ms before main):",
+				report.jvmStartupUs / 1000.0));
+		for (Phase phase : report.phases) {
+			timeline.append(String.format("%n  %8.1f ms  %8.1f ms  %s%s [%s]",
+					phase.startUs / 1000.0, phase.durationUs / 1000.0,
+					phase.parent != null ? "  " : "", phase.name, phase.thread));
+		}
+		timeline.append(String.format("%nStartup took %.1f ms, top-level phases add up to %.1f ms",
+				report.totalUs / 1000.0, report.phaseSumUs / 1000.0));
+		LimeLog.info(timeline.toString());
+
+		File settingsDir = new File(SettingsManager.SETTINGS_DIR);
+		settingsDir.mkdirs();
+		SettingsManager.writeSettings(new File(settingsDir, "startup.json"), report);
+	}
+}
@@ -0,0 +1,38 @@
+package com.limelight;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Runs every test. Each test is a class with a <code>main</code> method that throws if it fails.
+ */
+public class AllTests {
+	private static final String[] TESTS = {
+		"com.limelight.binding.audio.JavaxAudioRendererTest",
+		"com.limelight.discovery.SubnetScannerTest",
+		"com.limelight.input.EvdevMouseFallbackTest",
+		"com.limelight.input.InputReplayTest",
+		"com.limelight.input.gamepad.CompiledGamepadMappingTest",
+		"com.limelight.input.gamepad.GamepadListenerStressTest",
+		"com.limelight.input.MouseMotionCoalescerTest",
+	};
+
+	public static void main(String[] args) throws Exception {
+		int failures = 0;
+		for (String test : TESTS) {
+			long startTime = System.nanoTime();
+			try {
+				Class.forName(test).getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+				System.out.println("PASS "+test+" ("+(System.nanoTime() - startTime) / 1000000+" ms)");
+			} catch (InvocationTargetException e) {
+				System.out.println("FAIL "+test);
+				e.getCause().printStackTrace(System.out);
+				failures++;
+			}
+		}
+
+		System.out.println(TESTS.length+" tests, "+failures+" failures");
+		if (failures != 0) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.limelight;
+
+/**
+ * Assertions for the tests. These don't depend on <code>-ea</code> being passed to the JVM.
+ */
+public class Check {
+	public static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	public static void checkEquals(long expected, long actual, String what) {
+		if (expected != actual) {
+			throw new AssertionError(what+": expected "+expected+" but was "+actual);
+		}
+	}
+
+	public static void checkEquals(Object expected, Object actual, String what) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			throw new AssertionError(what+": expected "+expected+" but was "+actual);
+		}
+	}
+
+	/**
+	 * Finds a live thread by name
+	 * @param name the thread name
+	 * @return the thread or null if there is no live thread with that name
+	 */
+	public static Thread findThread(String name) {
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.getName().equals(name) && t.isAlive()) {
+				return t;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,140 @@
+package com.limelight.binding.audio;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.limelight.nvstream.av.ByteBufferDescriptor;
+import com.limelight.nvstream.av.RtpPacket;
+import com.limelight.nvstream.av.audio.AudioDepacketizer;
+import com.limelight.nvstream.av.audio.OpusDecoder;
+import com.limelight.stats.LatencyHistogram;
+
+/**
+ * Measures how long audio takes from packet receive to the sound line with and without
+ * <code>-queuedaudio</code>. Packets go through the real depacketizer and Opus decoder into
+ * a renderer writing to the simulated sound device, which plays out in real time.
+ * <br>Needs the natives from libs on <code>java.library.path</code>. Arguments are the number
+ * of packets to send per mode (default 2000) and how many to skip while the line settles
+ * (default 400).
+ */
+public class AudioSubmitBenchmark {
+	private static final int SAMPLE_RATE = 48000;
+	private static final int CHANNELS = 2;
+	private static final int SAMPLES_PER_FRAME = 240;
+	private static final int FRAME_BYTES = SAMPLES_PER_FRAME * CHANNELS * 2;
+	private static final long PACKET_INTERVAL_NS = 5000000;
+
+	// A 5 ms stereo CELT frame with no payload, which decodes to silence
+	private static final byte OPUS_SILENT_FRAME = (byte) 0xEC;
+
+	public static void main(String[] args) throws Exception {
+		int packets = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+
+		SimulatedMixerProvider.install();
+		if (OpusDecoder.init(SAMPLE_RATE, SAMPLES_PER_FRAME, CHANNELS, 1, 1, new byte[] {0, 1}) != 0) {
+			throw new IllegalStateException("Opus decoder failed to initialize");
+		}
+
+		try {
+			run(true, packets, warmup);
+			run(false, packets, warmup);
+		} finally {
+			OpusDecoder.destroy();
+		}
+	}
+
+	private static void run(boolean directSubmit, int packets, final int warmup) throws Exception {
+		final long[] receiveTimes = new long[packets];
+		final LatencyHistogram toWrite = new LatencyHistogram("Receive to write", 250, 2000);
+		final LatencyHistogram toPlay = new LatencyHistogram("Receive to playout", 250, 2000);
+
+		SimulatedMixerProvider.setWriteListener(new SimulatedMixerProvider.WriteListener() {
+			public void lineWritten(long streamOffset, int length, long writeTimeNs, long playTimeNs) {
+				double nsPerByte = 1000000000.0 / (SAMPLE_RATE * CHANNELS * 2);
+				// Record every packet whose first byte is in this write
+				for (long p = (streamOffset + FRAME_BYTES - 1) / FRAME_BYTES;
+						p * FRAME_BYTES < streamOffset + length && p < receiveTimes.length; p++) {
+					if (p < warmup) {
+						continue;
+					}
+					toWrite.recordNanos(writeTimeNs - receiveTimes[(int) p]);
+					toPlay.recordNanos(playTimeNs + (long)((p * FRAME_BYTES - streamOffset) * nsPerByte)
+							- receiveTimes[(int) p]);
+				}
+			}
+		});
+
+		JavaxAudioRenderer renderer = new JavaxAudioRenderer(directSubmit);
+		if (!renderer.streamInitialized(CHANNELS, 0x3, SAMPLES_PER_FRAME, SAMPLE_RATE)) {
+			throw new IllegalStateException("Simulated sound line failed to open");
+		}
+
+		final AudioDepacketizer depacketizer = new AudioDepacketizer(directSubmit ? renderer : null,
+				CHANNELS * SAMPLES_PER_FRAME);
+		Thread decoderThread = null;
+		if (!directSubmit) {
+			// This is what the audio stream runs when the renderer can't take frames directly
+			final JavaxAudioRenderer queuedRenderer = renderer;
+			decoderThread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (!isInterrupted()) {
+							ByteBufferDescriptor samples = depacketizer.getNextDecodedData();
+							queuedRenderer.playDecodedAudio(samples.data, samples.offset, samples.length);
+							depacketizer.freeDecodedData(samples);
+						}
+					} catch (InterruptedException e) {}
+				}
+			};
+			decoderThread.setName("Audio - Player");
+			decoderThread.setPriority(Thread.NORM_PRIORITY + 2);
+			decoderThread.start();
+		}
+
+		long nextSend = System.nanoTime();
+		for (int i = 0; i < packets; i++) {
+			long now;
+			while ((now = System.nanoTime()) < nextSend) {
+				LockSupport.parkNanos(nextSend - now);
+			}
+			nextSend += PACKET_INTERVAL_NS;
+
+			byte[] buffer = new byte[RtpPacket.FIXED_HEADER_SIZE + 1];
+			int seq = i + 1;
+			buffer[0] = (byte) 0x80;
+			buffer[1] = 97;
+			buffer[2] = (byte)(seq >> 8);
+			buffer[3] = (byte) seq;
+			buffer[RtpPacket.FIXED_HEADER_SIZE] = OPUS_SILENT_FRAME;
+			RtpPacket packet = new RtpPacket(buffer);
+			packet.initializeWithLength(buffer.length);
+
+			receiveTimes[i] = System.nanoTime();
+			depacketizer.decodeInputData(packet);
+		}
+
+		// Let the line play out what's left
+		Thread.sleep(200);
+		if (decoderThread != null) {
+			decoderThread.interrupt();
+			decoderThread.join();
+		}
+		renderer.streamClosing();
+		SimulatedMixerProvider.setWriteListener(null);
+
+		AudioStats stats = renderer.getStats();
+		System.out.println((directSubmit ? "Direct submit" : "Queued (-queuedaudio)")+": "+
+				packets+" packets, "+stats.getFramesDropped()+" dropped, "+
+				stats.getLineReallocations()+" line reallocations");
+		print(toWrite);
+		print(toPlay);
+		print(stats.getWriteLatency());
+	}
+
+	private static void print(LatencyHistogram histogram) {
+		System.out.printf("  %-24s mean %6d us  p50 %6d us  p99 %6d us  max %6d us  (n=%d)%n",
+				histogram.getName(), histogram.getMeanUs(), histogram.getPercentileUs(50),
+				histogram.getPercentileUs(99), histogram.getMaxUs(), histogram.getCount());
+	}
+}
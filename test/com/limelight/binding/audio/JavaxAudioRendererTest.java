@@ -0,0 +1,115 @@
+package com.limelight.binding.audio;
+
+import static com.limelight.Check.check;
+import static com.limelight.Check.checkEquals;
+import static com.limelight.Check.findThread;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Checks that direct submit plays every frame, that the playout thread sleeps
+ * without polling while there is nothing to play, and that resizing the line
+ * doesn't throw away audio it still holds.
+ */
+public class JavaxAudioRendererTest {
+	private static final int FRAME_BYTES = 240 * 2 * 2;
+
+	// 5 ms frames at a low rate, so the smallest line holds 85 ms and scheduling hiccups don't underrun it
+	private static final int SLOW_RATE = 12000;
+	private static final int SLOW_FRAME_SAMPLES = 60;
+	private static final long FRAME_NS = 5000000;
+
+	public static void main(String[] args) throws Exception {
+		SimulatedMixerProvider.install();
+
+		checkDirectSubmit();
+		checkShrinkKeepsQueuedAudio();
+	}
+
+	private static void checkDirectSubmit() throws Exception {
+		final AtomicLong bytesWritten = new AtomicLong();
+		SimulatedMixerProvider.setWriteListener(new SimulatedMixerProvider.WriteListener() {
+			public void lineWritten(long streamOffset, int length, long writeTimeNs, long playTimeNs) {
+				bytesWritten.addAndGet(length);
+			}
+		});
+
+		JavaxAudioRenderer renderer = new JavaxAudioRenderer(true);
+		check(renderer.streamInitialized(2, 0x3, 240, 48000), "simulated line should open");
+		try {
+			byte[] frame = new byte[FRAME_BYTES];
+			for (int i = 0; i < 40; i++) {
+				renderer.playDecodedAudio(frame, 0, frame.length);
+				Thread.sleep(5);
+			}
+			Thread.sleep(50);
+
+			checkEquals(40, renderer.getStats().getFramesReceived(), "frames received");
+			checkEquals(0, renderer.getStats().getFramesDropped(), "frames dropped");
+			checkEquals(40L * FRAME_BYTES, bytesWritten.get(), "bytes written to the line");
+
+			Thread playout = findThread("Audio - Playout");
+			check(playout != null, "playout thread should be running");
+			checkEquals(Thread.State.WAITING, playout.getState(), "idle playout thread state");
+
+			// A new frame after idling must still be played
+			renderer.playDecodedAudio(frame, 0, frame.length);
+			Thread.sleep(50);
+			checkEquals(41L * FRAME_BYTES, bytesWritten.get(), "bytes written after idling");
+		} finally {
+			renderer.streamClosing();
+			SimulatedMixerProvider.setWriteListener(null);
+		}
+
+		check(findThread("Audio - Playout") == null, "playout thread should exit on close");
+	}
+
+	/*
+	 * Grows the line with an underrun, then plays steadily until the controller shrinks it
+	 * again. The shrink happens with audio still in the line, which must all be played.
+	 */
+	private static void checkShrinkKeepsQueuedAudio() throws Exception {
+		SimulatedMixerProvider.setWriteListener(null);
+
+		JavaxAudioRenderer renderer = new JavaxAudioRenderer(true);
+		check(renderer.streamInitialized(2, 0x3, SLOW_FRAME_SAMPLES, SLOW_RATE), "simulated line should open");
+		try {
+			byte[] frame = new byte[SLOW_FRAME_SAMPLES * 2 * 2];
+			int frames = 0;
+
+			// Play past the grow holdoff with 60 ms of headroom, then let the line run dry
+			frames += playSteadily(renderer, frame, 60, 2);
+			frames += playSteadily(renderer, frame, 540, 1);
+			Thread.sleep(150);
+
+			// Build the headroom up again in the grown line, then play in real time until it shrinks
+			frames += playSteadily(renderer, frame, 60, 2);
+			frames += playSteadily(renderer, frame, LineBufferController.STABLE_PERIOD_MS + 500, 1);
+
+			// Let everything written play out before the line is closed
+			Thread.sleep(200);
+
+			checkEquals(2, renderer.getStats().getLineReallocations(), "line reallocations (grow and shrink)");
+			checkEquals(0, SimulatedMixerProvider.getDiscardedBytes(), "queued bytes discarded");
+			checkEquals(0, renderer.getStats().getFramesDropped(), "frames dropped");
+			checkEquals((long) frames * frame.length, renderer.getStats().getBytesWritten(), "bytes written");
+		} finally {
+			renderer.streamClosing();
+		}
+	}
+
+	// Submits frames on a fixed schedule, speedup times faster than real time, and returns how many were submitted
+	private static int playSteadily(JavaxAudioRenderer renderer, byte[] frame, long durationMs, int speedup) {
+		long next = System.nanoTime();
+		long end = next + durationMs * 1000000;
+		int frames = 0;
+		while (next < end) {
+			renderer.playDecodedAudio(frame, 0, frame.length);
+			frames++;
+			next += FRAME_NS / speedup;
+			LockSupport.parkNanos(next - System.nanoTime());
+		}
+		return frames;
+	}
+}
@@ -0,0 +1,327 @@
+package com.limelight.binding.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.spi.MixerProvider;
+
+/**
+ * A sound device for tests that plays out at exactly the format's rate without making a sound.
+ * <br>Call <code>install()</code> before the first line is opened so it is picked over any
+ * real device. Every write is reported to the write listener with the time its first byte
+ * will be played. Audio thrown away by a flush or close before it was played is counted.
+ */
+public class SimulatedMixerProvider extends MixerProvider {
+	public interface WriteListener {
+		/**
+		 * Called for each write to any simulated line
+		 * @param streamOffset how many bytes were written to all simulated lines before this write
+		 * @param length the number of bytes written
+		 * @param writeTimeNs when the write happened
+		 * @param playTimeNs when the first byte of the write will be played
+		 */
+		public void lineWritten(long streamOffset, int length, long writeTimeNs, long playTimeNs);
+	}
+
+	public static final String MIXER_NAME = "Simulated";
+
+	private static final Mixer.Info MIXER_INFO = new Mixer.Info(MIXER_NAME, "Moonlight tests",
+			"Plays out in real time without output", "1") {};
+
+	private static final AtomicLong streamBytes = new AtomicLong();
+	private static final AtomicLong discardedBytes = new AtomicLong();
+	private static volatile WriteListener writeListener;
+
+	/**
+	 * Makes the simulated device the default for source data lines
+	 */
+	public static void install() {
+		System.setProperty("javax.sound.sampled.SourceDataLine",
+				SimulatedMixerProvider.class.getName()+"#"+MIXER_NAME);
+	}
+
+	/**
+	 * Sets the listener for writes and restarts the stream byte count
+	 * @param listener the listener or null
+	 */
+	public static void setWriteListener(WriteListener listener) {
+		streamBytes.set(0);
+		discardedBytes.set(0);
+		writeListener = listener;
+	}
+
+	/**
+	 * Gets how many written bytes were flushed or closed away before being played
+	 * since the write listener was last set
+	 * @return the number of discarded bytes
+	 */
+	public static long getDiscardedBytes() {
+		return discardedBytes.get();
+	}
+
+	@Override
+	public Mixer.Info[] getMixerInfo() {
+		return new Mixer.Info[] { MIXER_INFO };
+	}
+
+	@Override
+	public Mixer getMixer(Mixer.Info info) {
+		if (info == null || info.equals(MIXER_INFO)) {
+			return MIXER;
+		}
+		throw new IllegalArgumentException("Unknown mixer: "+info);
+	}
+
+	private static final DataLine.Info SOURCE_LINE_INFO = new DataLine.Info(SourceDataLine.class,
+			new AudioFormat(AudioSystem.NOT_SPECIFIED, 16, AudioSystem.NOT_SPECIFIED, true, false),
+			AudioSystem.NOT_SPECIFIED);
+
+	private static abstract class SimulatedLineBase implements Line {
+		protected boolean open;
+
+		public void open() throws LineUnavailableException {
+			open = true;
+		}
+
+		public void close() {
+			open = false;
+		}
+
+		public boolean isOpen() {
+			return open;
+		}
+
+		public Control[] getControls() {
+			return new Control[0];
+		}
+
+		public boolean isControlSupported(Control.Type control) {
+			return false;
+		}
+
+		public Control getControl(Control.Type control) {
+			throw new IllegalArgumentException("No controls");
+		}
+
+		public void addLineListener(LineListener listener) {}
+
+		public void removeLineListener(LineListener listener) {}
+	}
+
+	private static final Mixer MIXER = new SimulatedMixer();
+
+	private static class SimulatedMixer extends SimulatedLineBase implements Mixer {
+		public Mixer.Info getMixerInfo() {
+			return MIXER_INFO;
+		}
+
+		public Line.Info getLineInfo() {
+			return new Line.Info(Mixer.class);
+		}
+
+		public Line.Info[] getSourceLineInfo() {
+			return new Line.Info[] { SOURCE_LINE_INFO };
+		}
+
+		public Line.Info[] getTargetLineInfo() {
+			return new Line.Info[0];
+		}
+
+		public Line.Info[] getSourceLineInfo(Line.Info info) {
+			return isLineSupported(info) ? getSourceLineInfo() : new Line.Info[0];
+		}
+
+		public Line.Info[] getTargetLineInfo(Line.Info info) {
+			return new Line.Info[0];
+		}
+
+		public boolean isLineSupported(Line.Info info) {
+			return info.getLineClass().isAssignableFrom(SourceDataLine.class);
+		}
+
+		public Line getLine(Line.Info info) throws LineUnavailableException {
+			if (!isLineSupported(info)) {
+				throw new IllegalArgumentException("Unsupported line: "+info);
+			}
+			return new SimulatedLine();
+		}
+
+		public int getMaxLines(Line.Info info) {
+			return AudioSystem.NOT_SPECIFIED;
+		}
+
+		public Line[] getSourceLines() {
+			return new Line[0];
+		}
+
+		public Line[] getTargetLines() {
+			return new Line[0];
+		}
+
+		public void synchronize(Line[] lines, boolean maintainSync) {
+			throw new IllegalArgumentException("Not supported");
+		}
+
+		public void unsynchronize(Line[] lines) {}
+
+		public boolean isSynchronizationSupported(Line[] lines, boolean maintainSync) {
+			return false;
+		}
+	}
+
+	private static class SimulatedLine extends SimulatedLineBase implements SourceDataLine {
+		private static final int DEFAULT_BUFFER_SIZE = 16384;
+
+		private AudioFormat format;
+		private int bufferSize;
+		private double bytesPerNs;
+		private boolean running;
+		private long written;
+		private double played;
+		private long lastUpdate;
+
+		public Line.Info getLineInfo() {
+			return SOURCE_LINE_INFO;
+		}
+
+		public synchronized void open(AudioFormat format, int bufferSize) throws LineUnavailableException {
+			this.format = format;
+			int frameSize = format.getFrameSize();
+			int size = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+			this.bufferSize = size - (size % frameSize);
+			this.bytesPerNs = (format.getFrameRate() * frameSize) / 1000000000.0;
+			open = true;
+		}
+
+		public void open(AudioFormat format) throws LineUnavailableException {
+			open(format, AudioSystem.NOT_SPECIFIED);
+		}
+
+		@Override
+		public void open() throws LineUnavailableException {
+			throw new LineUnavailableException("A format is required");
+		}
+
+		// Plays out whatever the time since the last update allows
+		private void update() {
+			long now = System.nanoTime();
+			if (running) {
+				played = Math.min(written, played + (now - lastUpdate) * bytesPerNs);
+			}
+			lastUpdate = now;
+		}
+
+		public int write(byte[] b, int off, int len) {
+			int done = 0;
+			while (done < len && open) {
+				int chunk;
+				long queued;
+				synchronized (this) {
+					update();
+					queued = written - (long) played;
+					chunk = (int) Math.min(len - done, bufferSize - queued);
+					chunk -= chunk % format.getFrameSize();
+					if (chunk > 0) {
+						written += chunk;
+					}
+				}
+
+				if (chunk > 0) {
+					long offset = streamBytes.getAndAdd(chunk);
+					WriteListener listener = writeListener;
+					if (listener != null) {
+						long now = System.nanoTime();
+						listener.lineWritten(offset, chunk, now, now + (long)(queued / bytesPerNs));
+					}
+					done += chunk;
+				}
+				else {
+					// Like a real line, block until there's space
+					LockSupport.parkNanos(200000);
+				}
+			}
+			return done;
+		}
+
+		public synchronized void drain() {
+			while (open && running && written > (long) played) {
+				update();
+				try {
+					wait(1);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		public synchronized void flush() {
+			update();
+			discardedBytes.addAndGet(written - (long) played);
+			played = written;
+		}
+
+		@Override
+		public synchronized void close() {
+			flush();
+			open = false;
+		}
+
+		public synchronized void start() {
+			update();
+			running = true;
+		}
+
+		public synchronized void stop() {
+			update();
+			running = false;
+		}
+
+		public synchronized boolean isRunning() {
+			return running;
+		}
+
+		public synchronized boolean isActive() {
+			update();
+			return running && written > (long) played;
+		}
+
+		public AudioFormat getFormat() {
+			return format;
+		}
+
+		public int getBufferSize() {
+			return bufferSize;
+		}
+
+		public synchronized int available() {
+			update();
+			return (int)(bufferSize - (written - (long) played));
+		}
+
+		public int getFramePosition() {
+			return (int) getLongFramePosition();
+		}
+
+		public synchronized long getLongFramePosition() {
+			update();
+			return (long) played / format.getFrameSize();
+		}
+
+		public long getMicrosecondPosition() {
+			return (long)(getLongFramePosition() * 1000000.0 / format.getFrameRate());
+		}
+
+		public float getLevel() {
+			return AudioSystem.NOT_SPECIFIED;
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package com.limelight.discovery;
+
+import static com.limelight.Check.check;
+import static com.limelight.Check.checkEquals;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Checks that a scan finds exactly the local stand-in hosts that listen on the port,
+ * in about one connect timeout, and that ranges are parsed as documented.
+ */
+public class SubnetScannerTest {
+	private static final String[] HOSTS = { "127.0.0.2", "127.0.0.7", "127.0.0.200" };
+
+	public static void main(String[] args) throws Exception {
+		findsListeningHosts();
+		parsesRanges();
+	}
+
+	private static void findsListeningHosts() throws Exception {
+		List<ServerSocket> listeners = new ArrayList<ServerSocket>();
+		try {
+			// Let the first stand-in pick a free port and put the rest on the same one
+			int port = 0;
+			for (String host : HOSTS) {
+				ServerSocket listener = new ServerSocket();
+				listener.bind(new InetSocketAddress(InetAddress.getByName(host), port));
+				port = listener.getLocalPort();
+				listeners.add(listener);
+			}
+
+			final List<InetAddress> reported = Collections.synchronizedList(new ArrayList<InetAddress>());
+			SubnetScanner scanner = new SubnetScanner(new SubnetScanner.ScanListener() {
+				public void hostFound(InetAddress address) {
+					reported.add(address);
+				}
+
+				public void scanFailed(Exception e) {}
+			}, port);
+
+			long startTime = System.nanoTime();
+			List<InetAddress> found = scanner.scan("127.0.0.0/24");
+			long elapsedMs = (System.nanoTime() - startTime) / 1000000;
+
+			HashSet<String> expected = new HashSet<String>();
+			Collections.addAll(expected, HOSTS);
+			checkEquals(expected, addressesOf(found), "hosts found");
+			checkEquals(expected, addressesOf(reported), "hosts reported");
+			checkEquals(HOSTS.length, found.size(), "hosts found once each");
+			check(elapsedMs < 2000, "scanning a /24 took "+elapsedMs+" ms");
+		} finally {
+			for (ServerSocket listener : listeners) {
+				listener.close();
+			}
+		}
+	}
+
+	private static void parsesRanges() {
+		checkEquals(addresses("10.0.0.4", "10.0.0.5"), SubnetScanner.parseRanges("10.0.0.4/31"), "/31 keeps both addresses");
+		checkEquals(addresses("10.0.0.9"), SubnetScanner.parseRanges("10.0.0.9/32"), "/32 keeps its address");
+		checkEquals(addresses("10.0.0.9"), SubnetScanner.parseRanges("10.0.0.9"), "a bare address");
+		checkEquals(addresses("10.0.0.5", "10.0.0.6"), SubnetScanner.parseRanges("10.0.0.7/30"),
+				"/30 drops the network and broadcast addresses");
+		checkEquals(addresses("10.0.0.9", "10.0.1.9"), SubnetScanner.parseRanges(" 10.0.0.9, 10.0.1.9 "),
+				"comma separated list");
+		checkEquals(65534, SubnetScanner.parseRanges("10.1.0.0/16").size(), "addresses in a /16");
+
+		rejects("10.0.0.0/15");
+		rejects("::1");
+		rejects("fe80::/120");
+		rejects("10.0.0.0/24/8");
+		rejects("10.0.0.0/33");
+		rejects("10.0.0.0/x");
+	}
+
+	private static void rejects(String range) {
+		try {
+			SubnetScanner.parseRanges(range);
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+		throw new AssertionError("\""+range+"\" should be rejected");
+	}
+
+	private static List<InetAddress> addresses(String... hosts) {
+		List<InetAddress> addresses = new ArrayList<InetAddress>();
+		for (String host : hosts) {
+			try {
+				addresses.add(InetAddress.getByName(host));
+			} catch (Exception e) {
+				throw new AssertionError(e);
+			}
+		}
+		return addresses;
+	}
+
+	private static HashSet<String> addressesOf(List<InetAddress> addresses) {
+		HashSet<String> set = new HashSet<String>();
+		synchronized (addresses) {
+			for (InetAddress address : addresses) {
+				set.add(address.getHostAddress());
+			}
+		}
+		return set;
+	}
+}
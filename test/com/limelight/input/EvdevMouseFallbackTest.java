@@ -0,0 +1,109 @@
+package com.limelight.input;
+
+import static com.limelight.Check.check;
+import static com.limelight.Check.checkEquals;
+import static com.limelight.Check.findThread;
+
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.swing.JPanel;
+
+/**
+ * Checks that the mouse handler ignores AWT events while reading a recording of evdev
+ * events and goes back to sending AWT events once the recording ends.
+ */
+public class EvdevMouseFallbackTest {
+	private static final int EV_SYN = 0x00;
+	private static final int EV_REL = 0x02;
+	private static final int REL_X = 0x00;
+	private static final int REL_Y = 0x01;
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+
+		// A named pipe keeps the reader blocked until the test ends the "recording"
+		final File fifo = File.createTempFile("evdev", ".fifo");
+		fifo.delete();
+		Process mkfifo = new ProcessBuilder("mkfifo", fifo.getPath()).start();
+		checkEquals(0, mkfifo.waitFor(), "mkfifo exit code");
+		fifo.deleteOnExit();
+
+		final FileOutputStream[] writer = new FileOutputStream[1];
+		Thread opener = new Thread() {
+			@Override
+			public void run() {
+				try {
+					writer[0] = new FileOutputStream(fifo);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		opener.start();
+
+		RecordingInputSink sink = new RecordingInputSink();
+		MouseHandler handler = new MouseHandler(new InputDispatcher(sink), null, 0, fifo.getPath());
+		opener.join();
+
+		JPanel source = new JPanel();
+		try {
+			// Raw input is active so AWT events aren't sent
+			handler.mouseWheelMoved(wheel(source, 1));
+			handler.mousePressed(new MouseEvent(source, MouseEvent.MOUSE_PRESSED, System.currentTimeMillis(),
+					0, 0, 0, 1, false, MouseEvent.BUTTON1));
+
+			writer[0].write(encode(EV_REL, REL_X, 5));
+			writer[0].write(encode(EV_REL, REL_Y, -3));
+			writer[0].write(encode(EV_SYN, 0, 0));
+			writer[0].flush();
+			waitForPackets(sink, 1);
+			checkEquals(Collections.singletonList("move 5 -3"), sink.getPackets(), "packets while reading evdev");
+
+			// The end of the recording stops the reader
+			writer[0].close();
+			for (int i = 0; i < 200 && findThread("Input - Evdev Mouse") != null; i++) {
+				Thread.sleep(10);
+			}
+			check(findThread("Input - Evdev Mouse") == null, "evdev reader should exit at the end of the file");
+
+			handler.mouseWheelMoved(wheel(source, -1));
+			handler.mousePressed(new MouseEvent(source, MouseEvent.MOUSE_PRESSED, System.currentTimeMillis(),
+					0, 0, 0, 1, false, MouseEvent.BUTTON1));
+			checkEquals(Arrays.asList("move 5 -3", "scroll 1", "down 1"), sink.getPackets(),
+					"AWT events after the reader stopped");
+		} finally {
+			handler.stop();
+			fifo.delete();
+		}
+	}
+
+	private static MouseWheelEvent wheel(JPanel source, int rotation) {
+		return new MouseWheelEvent(source, MouseEvent.MOUSE_WHEEL, System.currentTimeMillis(), 0, 0, 0, 0, false,
+				MouseWheelEvent.WHEEL_UNIT_SCROLL, 1, rotation);
+	}
+
+	/*
+	 * Encodes a 64-bit input_event stamped with the current time
+	 */
+	private static byte[] encode(int type, int code, int value) {
+		long nowUs = System.currentTimeMillis() * 1000;
+		ByteBuffer buffer = ByteBuffer.allocate(24).order(ByteOrder.nativeOrder());
+		buffer.putLong(nowUs / 1000000).putLong(nowUs % 1000000);
+		buffer.putShort((short) type).putShort((short) code).putInt(value);
+		return buffer.array();
+	}
+
+	private static void waitForPackets(RecordingInputSink sink, int count) throws InterruptedException {
+		for (int i = 0; i < 200 && sink.getPackets().size() < count; i++) {
+			Thread.sleep(10);
+		}
+	}
+}
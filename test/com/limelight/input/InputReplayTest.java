@@ -0,0 +1,101 @@
+package com.limelight.input;
+
+import static com.limelight.Check.check;
+import static com.limelight.Check.checkEquals;
+
+import java.awt.event.KeyEvent;
+import java.io.File;
+import java.nio.file.Files;
+
+import com.limelight.input.gamepad.GamepadHandler;
+import com.limelight.input.gamepad.GamepadMapping;
+import com.limelight.nvstream.input.MouseButtonPacket;
+import com.limelight.settings.GamepadSettingsManager;
+import com.limelight.settings.SettingsManager;
+
+/**
+ * Records raw events given to the input handlers and checks that replaying them through
+ * new handlers sends exactly the same packets.
+ */
+public class InputReplayTest {
+	private static class Handlers {
+		final RecordingInputSink sink = new RecordingInputSink();
+		final InputDispatcher dispatcher = new InputDispatcher(sink);
+		final KeyboardHandler keyboard = new KeyboardHandler(dispatcher, null);
+		final MouseMotionCoalescer mouse = new MouseMotionCoalescer(dispatcher, 0);
+		final GamepadHandler gamepad = new GamepadHandler(dispatcher);
+	}
+
+	public static void main(String[] args) throws Exception {
+		// Keep the gamepad mapping out of the user's real settings
+		File settingsDir = Files.createTempDirectory("moonlight-test").toFile();
+		SettingsManager.SETTINGS_DIR = settingsDir.getPath();
+		GamepadSettingsManager.writeSettings(GamepadMapping.getWindowsDefaultMapping());
+
+		File recording = File.createTempFile("input", ".rec");
+		try {
+			Handlers live = new Handlers();
+			InputRecorder recorder = new InputRecorder(recording);
+			live.keyboard.setRecorder(recorder);
+			live.mouse.setRecorder(recorder);
+			live.gamepad.setRecorder(recorder);
+			int events = generateInput(live);
+			recorder.close();
+
+			Handlers replayed = new Handlers();
+			InputReplayer replayer = new InputReplayer(recording);
+			replayer.replay(replayed.keyboard, replayed.mouse, replayed.gamepad, 0);
+
+			checkEquals(events, replayer.getEventsReplayed(), "events replayed");
+			check(live.sink.getPackets().size() > 0, "no packets were sent");
+			checkEquals(live.sink.getPackets(), replayed.sink.getPackets(), "replayed packets");
+
+			// A repeat and an unmatched release are suppressed by the handler, not the recorder
+			checkEquals(2, countStartingWith(replayed.sink, "key "), "key packets");
+		} finally {
+			recording.delete();
+			new File(settingsDir, "gamepad.json").delete();
+			settingsDir.delete();
+		}
+	}
+
+	/*
+	 * Sends a little of every kind of input through the handlers. Returns the number of events.
+	 */
+	private static int generateInput(Handlers h) throws InterruptedException {
+		long now = System.nanoTime();
+		h.keyboard.keyDown(KeyEvent.VK_A, KeyEvent.SHIFT_DOWN_MASK, now);
+		h.keyboard.keyDown(KeyEvent.VK_A, KeyEvent.SHIFT_DOWN_MASK, now + 1000000);
+		h.keyboard.keyUp(KeyEvent.VK_A, 0, now + 2000000);
+		h.keyboard.keyUp(KeyEvent.VK_B, 0, now + 3000000);
+
+		h.mouse.addMotion(3, -4, now + 4000000);
+		h.mouse.addMotion(40000, 1, now + 5000000);
+		h.mouse.sendButtonDown(MouseButtonPacket.BUTTON_LEFT, now + 6000000);
+		h.mouse.sendButtonUp(MouseButtonPacket.BUTTON_LEFT, now + 7000000);
+		h.mouse.sendScroll((byte) -1, now + 8000000);
+
+		Device pad = new Device(0, 16, 6);
+		h.gamepad.handleDeviceAdded(pad);
+		h.gamepad.handleButton(pad, 10, true, now + 9000000);
+		h.gamepad.handleAxis(pad, 0, 0.5f, 0f, now + 9000000);
+		h.gamepad.handleAxis(pad, 4, 0.95f, 0f, now + 9000000);
+		h.gamepad.handlePollComplete();
+		h.gamepad.handleButton(pad, 10, false, now + 10000000);
+		h.gamepad.handleAxis(pad, 0, 0f, 0.5f, now + 10000000);
+		h.gamepad.handlePollComplete();
+		h.gamepad.handleDeviceRemoved(pad);
+
+		return 4 + 5 + 9;
+	}
+
+	private static int countStartingWith(RecordingInputSink sink, String prefix) {
+		int count = 0;
+		for (String packet : sink.getPackets()) {
+			if (packet.startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
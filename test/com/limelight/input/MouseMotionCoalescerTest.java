@@ -0,0 +1,78 @@
+package com.limelight.input;
+
+import static com.limelight.Check.check;
+import static com.limelight.Check.checkEquals;
+
+import java.util.Arrays;
+
+/**
+ * Checks that coalesced motion adds up, stays in order with buttons and fits the packet fields
+ */
+public class MouseMotionCoalescerTest {
+	public static void main(String[] args) throws Exception {
+		sendsEveryEventWithoutTick();
+		mergesMotionEachTick();
+		flushesMotionBeforeButtonsAndScroll();
+		splitsLargeDeltas();
+	}
+
+	private static void sendsEveryEventWithoutTick() {
+		RecordingInputSink sink = new RecordingInputSink();
+		MouseMotionCoalescer coalescer = new MouseMotionCoalescer(new InputDispatcher(sink), 0);
+		coalescer.start();
+		for (int i = 0; i < 10; i++) {
+			coalescer.addMotion(1, -1);
+		}
+		coalescer.stop();
+
+		checkEquals(10, sink.getPackets().size(), "packets with no tick");
+		checkEquals(10, coalescer.getPacketsSent(), "packets counted with no tick");
+	}
+
+	private static void mergesMotionEachTick() throws InterruptedException {
+		RecordingInputSink sink = new RecordingInputSink();
+		MouseMotionCoalescer coalescer = new MouseMotionCoalescer(new InputDispatcher(sink), 4);
+		coalescer.start();
+		// 1000 Hz motion for half a second
+		for (int i = 0; i < 500; i++) {
+			coalescer.addMotion(2, 3);
+			Thread.sleep(1);
+		}
+		coalescer.stop();
+
+		checkEquals(1000, sink.getTotalDeltaX(), "total X motion");
+		checkEquals(1500, sink.getTotalDeltaY(), "total Y motion");
+		checkEquals(500, coalescer.getEventsReceived(), "motion events received");
+		check(coalescer.getPacketsSent() < 250, "motion should be merged but "+
+				coalescer.getPacketsSent()+" packets were sent for 500 events");
+	}
+
+	private static void flushesMotionBeforeButtonsAndScroll() {
+		RecordingInputSink sink = new RecordingInputSink();
+		// A long tick so only the button and scroll events flush motion
+		MouseMotionCoalescer coalescer = new MouseMotionCoalescer(new InputDispatcher(sink), 60000);
+		coalescer.start();
+		coalescer.addMotion(3, 4);
+		coalescer.addMotion(1, 1);
+		coalescer.sendButtonDown((byte) 1);
+		coalescer.addMotion(-5, 0);
+		coalescer.sendButtonUp((byte) 1);
+		coalescer.sendScroll((byte) 2);
+		coalescer.addMotion(0, 7);
+		coalescer.stop();
+
+		checkEquals(Arrays.asList("move 4 5", "down 1", "move -5 0", "up 1", "scroll 2", "move 0 7"),
+				sink.getPackets(), "packet order");
+	}
+
+	private static void splitsLargeDeltas() {
+		RecordingInputSink sink = new RecordingInputSink();
+		MouseMotionCoalescer coalescer = new MouseMotionCoalescer(new InputDispatcher(sink), 60000);
+		coalescer.start();
+		coalescer.addMotion(30000, -30000);
+		coalescer.addMotion(30000, -30000);
+		coalescer.stop();
+
+		checkEquals(Arrays.asList("move 32767 -32768", "move 27233 -27232"), sink.getPackets(), "split motion");
+	}
+}
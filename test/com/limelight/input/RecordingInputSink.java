@@ -0,0 +1,65 @@
+package com.limelight.input;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the input packets sent to it as strings so tests can check their order
+ */
+public class RecordingInputSink extends CountingInputSink {
+	private final List<String> packets = new ArrayList<String>();
+	private long totalDeltaX, totalDeltaY;
+
+	@Override
+	public synchronized void sendKeyboardInput(short keyCode, byte keyDirection, byte modifiers) {
+		super.sendKeyboardInput(keyCode, keyDirection, modifiers);
+		packets.add("key "+keyCode+" "+keyDirection+" "+modifiers);
+	}
+
+	@Override
+	public synchronized void sendMouseMove(short deltaX, short deltaY) {
+		super.sendMouseMove(deltaX, deltaY);
+		packets.add("move "+deltaX+" "+deltaY);
+		totalDeltaX += deltaX;
+		totalDeltaY += deltaY;
+	}
+
+	@Override
+	public synchronized void sendMouseButtonDown(byte button) {
+		super.sendMouseButtonDown(button);
+		packets.add("down "+button);
+	}
+
+	@Override
+	public synchronized void sendMouseButtonUp(byte button) {
+		super.sendMouseButtonUp(button);
+		packets.add("up "+button);
+	}
+
+	@Override
+	public synchronized void sendMouseScroll(byte amount) {
+		super.sendMouseScroll(amount);
+		packets.add("scroll "+amount);
+	}
+
+	@Override
+	public synchronized void sendControllerInput(short controllerNumber, short buttonFlags, byte leftTrigger, byte rightTrigger,
+			short leftStickX, short leftStickY, short rightStickX, short rightStickY) {
+		super.sendControllerInput(controllerNumber, buttonFlags, leftTrigger, rightTrigger,
+				leftStickX, leftStickY, rightStickX, rightStickY);
+		packets.add("controller "+controllerNumber+" "+buttonFlags+" "+leftTrigger+" "+rightTrigger+" "+
+				leftStickX+" "+leftStickY+" "+rightStickX+" "+rightStickY);
+	}
+
+	public synchronized List<String> getPackets() {
+		return new ArrayList<String>(packets);
+	}
+
+	public synchronized long getTotalDeltaX() {
+		return totalDeltaX;
+	}
+
+	public synchronized long getTotalDeltaY() {
+		return totalDeltaY;
+	}
+}
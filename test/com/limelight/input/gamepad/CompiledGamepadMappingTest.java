@@ -0,0 +1,128 @@
+package com.limelight.input.gamepad;
+
+import static com.limelight.Check.check;
+import static com.limelight.Check.checkEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ConcurrentModificationException;
+
+import com.limelight.input.gamepad.GamepadMapping.Mapping;
+import com.limelight.input.gamepad.SourceComponent.Direction;
+import com.limelight.input.gamepad.SourceComponent.Type;
+
+/**
+ * Checks that compiled mappings agree with <code>GamepadMapping</code>, can be compiled while
+ * the mapping is edited, and don't allocate on lookup.
+ */
+public class CompiledGamepadMappingTest {
+	public static void main(String[] args) throws Exception {
+		matchesSourceMapping();
+		keepsFirstSourceForComponent();
+		compilesWhileEdited();
+		lookupsDontAllocate();
+	}
+
+	private static void matchesSourceMapping() {
+		GamepadMapping source = GamepadMapping.getWindowsDefaultMapping();
+		CompiledGamepadMapping compiled = CompiledGamepadMapping.compile(source);
+
+		for (SourceComponent comp : source.getSourceComponents()) {
+			Mapping expected = source.get(comp);
+			Mapping actual = comp.getType() == Type.BUTTON ? compiled.getButton(comp.getId()) :
+				compiled.getAxis(comp.getId(), comp.getDirection() != Direction.NEGATIVE);
+			check(expected == actual, "compiled lookup for "+comp.getType()+" "+comp.getId());
+		}
+		for (GamepadComponent padComp : GamepadComponent.values()) {
+			checkEquals(source.getMapping(padComp), compiled.getMapping(padComp), "reverse lookup of "+padComp);
+		}
+
+		check(compiled.getButton(100) == null, "unmapped button");
+		check(compiled.getAxis(-1, true) == null, "negative axis");
+		check(!compiled.isStale(), "fresh compile is stale");
+		source.remove(new SourceComponent(Type.BUTTON, 10, null));
+		check(compiled.isStale(), "edited mapping isn't stale");
+	}
+
+	private static void keepsFirstSourceForComponent() {
+		GamepadMapping source = new GamepadMapping();
+		for (int i = 0; i < 32; i++) {
+			source.insertMapping(source.new Mapping(GamepadComponent.BTN_A, false, false),
+					new SourceComponent(Type.BUTTON, i, null));
+			source.insertMapping(source.new Mapping(GamepadComponent.LS_LEFT, false, false),
+					new SourceComponent(Type.AXIS, i, Direction.NEGATIVE));
+		}
+
+		CompiledGamepadMapping compiled = CompiledGamepadMapping.compile(source);
+		checkEquals(source.getMapping(GamepadComponent.BTN_A), compiled.getMapping(GamepadComponent.BTN_A),
+				"reverse lookup with many buttons mapped to A");
+		checkEquals(source.getMapping(GamepadComponent.LS_LEFT), compiled.getMapping(GamepadComponent.LS_LEFT),
+				"reverse lookup with many axes mapped to LS_LEFT");
+	}
+
+	private static void compilesWhileEdited() throws InterruptedException {
+		final GamepadMapping source = GamepadMapping.getWindowsDefaultMapping();
+		final long endTime = System.nanoTime() + 500000000L;
+		final Throwable[] failure = new Throwable[1];
+
+		// Stands in for the settings window remapping buttons on the EDT
+		Thread editor = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; System.nanoTime() < endTime; i++) {
+					SourceComponent comp = new SourceComponent(Type.BUTTON, 20 + (i % 64), null);
+					source.insertMapping(source.new Mapping(GamepadComponent.BTN_X, false, false), comp);
+					source.remove(comp);
+				}
+			}
+		};
+		editor.start();
+
+		int compiles = 0;
+		try {
+			while (System.nanoTime() < endTime) {
+				CompiledGamepadMapping.compile(source);
+				compiles++;
+			}
+		} catch (ConcurrentModificationException e) {
+			failure[0] = e;
+		}
+		editor.join();
+
+		check(failure[0] == null, "compiling while the mapping was edited threw "+failure[0]);
+		check(compiles > 0, "nothing was compiled");
+	}
+
+	private static void lookupsDontAllocate() {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		CompiledGamepadMapping compiled = CompiledGamepadMapping.compile(GamepadMapping.getWindowsDefaultMapping());
+		GamepadComponent[] padComps = GamepadComponent.values();
+
+		// Warm up so the allocation count doesn't include class loading or the JIT
+		int found = lookUp(compiled, padComps, 200000);
+
+		long before = threads.getThreadAllocatedBytes(threadId);
+		found += lookUp(compiled, padComps, 1000000);
+		long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+		check(found > 0, "lookups found nothing");
+		check(allocated < 1024, allocated+" bytes allocated by 1M lookups");
+	}
+
+	private static int lookUp(CompiledGamepadMapping compiled, GamepadComponent[] padComps, int iterations) {
+		int found = 0;
+		for (int i = 0; i < iterations; i++) {
+			if (compiled.getButton(i & 15) != null) {
+				found++;
+			}
+			if (compiled.getAxis(i & 7, (i & 8) == 0) != null) {
+				found++;
+			}
+			if (compiled.getMapping(padComps[i % padComps.length]) != null) {
+				found++;
+			}
+		}
+		return found;
+	}
+}
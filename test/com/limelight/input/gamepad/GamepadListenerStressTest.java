@@ -0,0 +1,170 @@
+package com.limelight.input.gamepad;
+
+import static com.limelight.Check.check;
+import static com.limelight.Check.checkEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.limelight.input.Device;
+import com.limelight.input.DeviceListener;
+
+/**
+ * Delivers gamepad events as fast as possible while other threads register and remove
+ * listeners and attach and remove other devices. Every event must reach a device that
+ * is attached, and nothing may throw.
+ */
+public class GamepadListenerStressTest {
+	private static final int RUN_TIME_MS = 1000;
+	private static final int REGISTERING_THREADS = 4;
+	private static final int DELIVERED_DEVICES = 8;
+	private static final int CHURNED_DEVICES = 24;
+
+	private static final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private static final AtomicLong callbacks = new AtomicLong();
+	private static volatile boolean running = true;
+
+	private static class CountingListener implements DeviceListener, NativeGamepadListener {
+		public void handleButton(Device device, int buttonId, boolean pressed, long timestamp) {
+			if (device == null) {
+				fail(new AssertionError("button event for a device that isn't attached"));
+			}
+			callbacks.incrementAndGet();
+		}
+
+		public void handleAxis(Device device, int axisId, float newValue, float lastValue, long timestamp) {
+			if (device == null) {
+				fail(new AssertionError("axis event for a device that isn't attached"));
+			}
+			callbacks.incrementAndGet();
+		}
+
+		public void handleDeviceAdded(Device device) {
+			callbacks.incrementAndGet();
+		}
+
+		public void handleDeviceRemoved(Device device) {
+			callbacks.incrementAndGet();
+		}
+
+		public void handlePollComplete() {
+			callbacks.incrementAndGet();
+		}
+
+		public void deviceAttached(int deviceId, int numButtons, int numAxes) {
+			callbacks.incrementAndGet();
+		}
+
+		public void deviceRemoved(int deviceId) {
+			callbacks.incrementAndGet();
+		}
+
+		public void buttonDown(int deviceId, int buttonId, long timestamp) {
+			callbacks.incrementAndGet();
+		}
+
+		public void buttonUp(int deviceId, int buttonId, long timestamp) {
+			callbacks.incrementAndGet();
+		}
+
+		public void axisMoved(int deviceId, int axisId, float value, float lastValue, long timestamp) {
+			callbacks.incrementAndGet();
+		}
+
+		public void pollComplete() {
+			callbacks.incrementAndGet();
+		}
+	}
+
+	private static void fail(Throwable t) {
+		failure.compareAndSet(null, t);
+		running = false;
+	}
+
+	private static abstract class StressThread extends Thread {
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					iterate();
+				}
+			} catch (Throwable t) {
+				fail(t);
+			}
+		}
+
+		protected abstract void iterate();
+	}
+
+	public static void main(String[] args) throws Exception {
+		final GamepadListener listener = GamepadListener.getInstance();
+		int initialListeners = listener.getListeners().size();
+		NativeGamepad.addListener(listener);
+
+		// Always registered, so every delivered event is checked
+		CountingListener checker = new CountingListener();
+		listener.addDeviceListener(checker);
+
+		Thread[] threads = new Thread[REGISTERING_THREADS + 2];
+		for (int i = 0; i < REGISTERING_THREADS; i++) {
+			threads[i] = new StressThread() {
+				protected void iterate() {
+					CountingListener l = new CountingListener();
+					listener.addDeviceListener(l);
+					NativeGamepad.addListener(l);
+					listener.removeListener(l);
+					NativeGamepad.removeListener(l);
+				}
+			};
+		}
+
+		// Devices that come and go alongside the delivered ones
+		threads[REGISTERING_THREADS] = new StressThread() {
+			private int next;
+
+			protected void iterate() {
+				int deviceId = DELIVERED_DEVICES + (next++ % CHURNED_DEVICES);
+				listener.deviceAttached(deviceId, 16, 8);
+				listener.deviceRemoved(deviceId);
+			}
+		};
+
+		// Stands in for the polling thread
+		threads[REGISTERING_THREADS + 1] = new StressThread() {
+			protected void iterate() {
+				for (int deviceId = 0; deviceId < DELIVERED_DEVICES; deviceId++) {
+					listener.deviceAttached(deviceId, 16, 8);
+				}
+				for (int i = 0; i < 16; i++) {
+					int deviceId = i % DELIVERED_DEVICES;
+					NativeGamepad.buttonDownCallback(deviceId, i);
+					NativeGamepad.axisMovedCallback(deviceId, i % 8, 0.5f, 0.25f);
+					NativeGamepad.buttonUpCallback(deviceId, i);
+				}
+				NativeGamepad.pollCompleteCallback();
+				for (int deviceId = 0; deviceId < DELIVERED_DEVICES; deviceId++) {
+					listener.deviceRemoved(deviceId);
+				}
+			}
+		};
+
+		for (Thread t : threads) {
+			t.start();
+		}
+		Thread.sleep(RUN_TIME_MS);
+		running = false;
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		listener.removeListener(checker);
+		NativeGamepad.removeListener(listener);
+
+		if (failure.get() != null) {
+			throw new AssertionError("stress run failed", failure.get());
+		}
+		check(callbacks.get() > 100000, "only "+callbacks.get()+" callbacks were delivered");
+		checkEquals(initialListeners, listener.getListeners().size(), "listeners left registered");
+		checkEquals(0, listener.deviceCount(), "devices left attached");
+	}
+}
@@ -0,0 +1,105 @@
+package com.limelight.input.gamepad;
+
+import java.lang.management.ManagementFactory;
+
+import com.limelight.input.gamepad.SourceComponent.Direction;
+import com.limelight.input.gamepad.SourceComponent.Type;
+
+/**
+ * Compares looking up gamepad events in a <code>GamepadMapping</code>, which allocates a
+ * <code>SourceComponent</code> to probe its map or scans it for reverse lookups, with the
+ * arrays of a <code>CompiledGamepadMapping</code>.
+ * <br>JMH isn't available to this build, so each case is warmed up and then timed over
+ * several rounds, reporting the best round. The argument is the lookups per round (default 5M).
+ */
+public class GamepadMappingBenchmark {
+	private static final int ROUNDS = 5;
+
+	private interface Case {
+		public int run(int iterations);
+	}
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+
+		final GamepadMapping source = GamepadMapping.getWindowsDefaultMapping();
+		final CompiledGamepadMapping compiled = CompiledGamepadMapping.compile(source);
+		final GamepadComponent[] padComps = GamepadComponent.values();
+
+		run("Button and axis, GamepadMapping", iterations, new Case() {
+			public int run(int iterations) {
+				int found = 0;
+				for (int i = 0; i < iterations; i++) {
+					if ((i & 1) == 0) {
+						if (source.get(new SourceComponent(Type.BUTTON, i & 15, null)) != null) {
+							found++;
+						}
+					}
+					else if (source.get(new SourceComponent(Type.AXIS, i & 7,
+							(i & 8) == 0 ? Direction.POSITIVE : Direction.NEGATIVE)) != null) {
+						found++;
+					}
+				}
+				return found;
+			}
+		});
+		run("Button and axis, compiled", iterations, new Case() {
+			public int run(int iterations) {
+				int found = 0;
+				for (int i = 0; i < iterations; i++) {
+					if ((i & 1) == 0) {
+						if (compiled.getButton(i & 15) != null) {
+							found++;
+						}
+					}
+					else if (compiled.getAxis(i & 7, (i & 8) == 0) != null) {
+						found++;
+					}
+				}
+				return found;
+			}
+		});
+		run("Reverse, GamepadMapping", iterations / 10, new Case() {
+			public int run(int iterations) {
+				int found = 0;
+				for (int i = 0; i < iterations; i++) {
+					if (source.getMapping(padComps[i % padComps.length]) != null) {
+						found++;
+					}
+				}
+				return found;
+			}
+		});
+		run("Reverse, compiled", iterations / 10, new Case() {
+			public int run(int iterations) {
+				int found = 0;
+				for (int i = 0; i < iterations; i++) {
+					if (compiled.getMapping(padComps[i % padComps.length]) != null) {
+						found++;
+					}
+				}
+				return found;
+			}
+		});
+	}
+
+	private static void run(String name, int iterations, Case c) {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		int found = c.run(iterations);
+		long bestNs = Long.MAX_VALUE;
+		long allocated = 0;
+		for (int round = 0; round < ROUNDS; round++) {
+			long startBytes = threads.getThreadAllocatedBytes(threadId);
+			long startTime = System.nanoTime();
+			found += c.run(iterations);
+			bestNs = Math.min(bestNs, System.nanoTime() - startTime);
+			allocated = threads.getThreadAllocatedBytes(threadId) - startBytes;
+		}
+
+		System.out.printf("%-34s %7.2f ns/lookup %7.2f bytes/lookup (%d found)%n", name,
+				(double) bestNs / iterations, (double) allocated / iterations, found);
+	}
+}